@@ -0,0 +1,437 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Reads SafeParcel objects from marshalled parcel data without Android, for example on servers.
+ * <p>
+ * The data is expected in the layout of {@code android.os.Parcel#marshall()} on little-endian devices: all values are
+ * aligned to 4 bytes, strings are UTF-16 with a terminating null character and byte arrays are padded. Only plain data
+ * can be read this way, binders, file descriptors and bundles are only skipped.
+ * <p>
+ * All sizes and lengths are checked against the enclosing data, malformed input throws {@link FormatException}. Methods
+ * taking a header mirror those of {@code SafeParcelReader}.
+ * <p>
+ * Byte arrays can also be read as views, which share the underlying data instead of copying it. Together with a
+ * buffer that maps a file, large blobs can be passed on without ever being copied to the heap.
+ */
+@SuppressWarnings("MagicNumber")
+public final class BlobReader {
+    private final ByteBuffer buffer;
+
+    /**
+     * Reads from the remaining bytes of the buffer. The buffer itself is not modified.
+     */
+    public BlobReader(ByteBuffer buffer) {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public BlobReader(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    public int position() {
+        return buffer.position();
+    }
+
+    public void position(int position) {
+        if (position < 0 || position > buffer.limit())
+            throw new FormatException("Position " + position + " out of bounds", buffer.position());
+        buffer.position(position);
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    private void require(int bytes) {
+        if (bytes < 0 || bytes > buffer.remaining())
+            throw new FormatException("Need " + bytes + " bytes, " + buffer.remaining() + " remaining", buffer.position());
+    }
+
+    private int nextInt() {
+        require(4);
+        return buffer.getInt();
+    }
+
+    public int readHeader() {
+        return nextInt();
+    }
+
+    /**
+     * Reads the size following the given header, if any.
+     */
+    public int readSize(int header) {
+        int size = SafeParcelFormat.isLongHeader(header) ? nextInt() : SafeParcelFormat.getShortSize(header);
+        require(size);
+        return size;
+    }
+
+    private void readExpectedSize(int header, int expected) {
+        int size = readSize(header);
+        if (size != expected)
+            throw new FormatException("Expected size " + expected + " got " + size, buffer.position());
+    }
+
+    /**
+     * Reads an object header.
+     *
+     * @return the position at which the object ends
+     */
+    public int readObjectHeader() {
+        int header = readHeader();
+        if (SafeParcelFormat.getFieldId(header) != SafeParcelFormat.OBJECT_MAGIC)
+            throw new FormatException("Expected object header. Got 0x" + Integer.toHexString(header), buffer.position() - 4);
+        int size = readSize(header);
+        return buffer.position() + size;
+    }
+
+    public void skip(int header) {
+        int size = readSize(header);
+        buffer.position(buffer.position() + size);
+    }
+
+    public int readInt(int header) {
+        readExpectedSize(header, 4);
+        return buffer.getInt();
+    }
+
+    public boolean readBool(int header) {
+        return readInt(header) != 0;
+    }
+
+    public long readLong(int header) {
+        readExpectedSize(header, 8);
+        return buffer.getLong();
+    }
+
+    public float readFloat(int header) {
+        readExpectedSize(header, 4);
+        return buffer.getFloat();
+    }
+
+    public double readDouble(int header) {
+        readExpectedSize(header, 8);
+        return buffer.getDouble();
+    }
+
+    public String readString(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        String string = nextString(end);
+        buffer.position(end);
+        return string;
+    }
+
+    private String nextString(int end) {
+        int length = nextLength(end, 2);
+        if (length < 0)
+            return null;
+        int bytes = pad((length + 1) * 2);
+        if (bytes > end - buffer.position())
+            throw new FormatException("String of length " + length + " exceeds field", buffer.position());
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        buffer.position(buffer.position() + bytes - length * 2);
+        return new String(chars);
+    }
+
+    public byte[] readByteArray(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextLength(end, 1);
+        byte[] arr = null;
+        if (length >= 0) {
+            arr = new byte[length];
+            buffer.get(arr);
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    public byte[][] readByteArrayArray(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextLength(end, 4);
+        byte[][] arr = null;
+        if (length >= 0) {
+            arr = new byte[length][];
+            for (int i = 0; i < length; i++) {
+                ByteBuffer view = nextByteView(end);
+                if (view != null) {
+                    arr[i] = new byte[view.remaining()];
+                    view.get(arr[i]);
+                }
+            }
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    /**
+     * Reads a byte array field without copying it.
+     *
+     * @return a read-only view of the array content in the underlying data, or null
+     */
+    public ByteBuffer readByteArrayView(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        ByteBuffer view = nextByteView(end);
+        buffer.position(end);
+        return view;
+    }
+
+    /**
+     * Reads a byte array array field without copying the arrays.
+     *
+     * @return read-only views of the array contents in the underlying data, or null
+     */
+    public ByteBuffer[] readByteArrayArrayView(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextLength(end, 4);
+        ByteBuffer[] arr = null;
+        if (length >= 0) {
+            arr = new ByteBuffer[length];
+            for (int i = 0; i < length; i++) {
+                arr[i] = nextByteView(end);
+            }
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    private ByteBuffer nextByteView(int end) {
+        int length = nextLength(end, 1);
+        if (length < 0)
+            return null;
+        int start = buffer.position();
+        if (pad(length) > end - start)
+            throw new FormatException("Byte array of length " + length + " exceeds field", start);
+        ByteBuffer view = buffer.duplicate();
+        view.limit(start + length);
+        buffer.position(start + pad(length));
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    public int[] readIntArray(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextLength(end, 4);
+        int[] arr = null;
+        if (length >= 0) {
+            arr = new int[length];
+            buffer.asIntBuffer().get(arr);
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    public long[] readLongArray(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextLength(end, 8);
+        long[] arr = null;
+        if (length >= 0) {
+            arr = new long[length];
+            buffer.asLongBuffer().get(arr);
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    public float[] readFloatArray(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextLength(end, 4);
+        float[] arr = null;
+        if (length >= 0) {
+            arr = new float[length];
+            buffer.asFloatBuffer().get(arr);
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    public double[] readDoubleArray(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextLength(end, 8);
+        double[] arr = null;
+        if (length >= 0) {
+            arr = new double[length];
+            buffer.asDoubleBuffer().get(arr);
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    public String[] readStringArray(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextLength(end, 4);
+        String[] arr = null;
+        if (length >= 0) {
+            arr = new String[length];
+            for (int i = 0; i < length; i++) {
+                arr[i] = nextString(end);
+            }
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    public ArrayList<String> readStringList(int header) {
+        String[] arr = readStringArray(header);
+        if (arr == null)
+            return null;
+        ArrayList<String> list = new ArrayList<>(arr.length);
+        for (String s : arr) {
+            list.add(s);
+        }
+        return list;
+    }
+
+    public int[] readPackedIntegerList(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextPackedLength();
+        byte[] bytes = nextPackedBytes(end, length);
+        VarInt.Reader reader = new VarInt.Reader(bytes);
+        int[] arr = new int[length];
+        try {
+            for (int i = 0; i < length; i++) {
+                arr[i] = reader.readZigZagInt();
+            }
+        } catch (IllegalArgumentException e) {
+            throw new FormatException("Malformed packed integer list", end - size);
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    public long[] readPackedLongList(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextPackedLength();
+        byte[] bytes = nextPackedBytes(end, length);
+        VarInt.Reader reader = new VarInt.Reader(bytes);
+        long[] arr = new long[length];
+        try {
+            for (int i = 0; i < length; i++) {
+                arr[i] = reader.readZigZagLong();
+            }
+        } catch (IllegalArgumentException e) {
+            throw new FormatException("Malformed packed long list", end - size);
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    public boolean[] readPackedBooleanList(int header) {
+        int size = readSize(header);
+        if (size == 0)
+            return null;
+        int end = buffer.position() + size;
+        int length = nextPackedLength();
+        byte[] bytes = nextPackedBytes(end, (length + 7) / 8);
+        if (bytes.length < (length + 7L) / 8)
+            throw new FormatException("Malformed packed boolean list", end - size);
+        boolean[] arr = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            arr[i] = (bytes[i >> 3] & 1 << (i & 7)) != 0;
+        }
+        buffer.position(end);
+        return arr;
+    }
+
+    private int nextPackedLength() {
+        int magic = nextInt();
+        if (magic != SafeParcelFormat.PACKED_LIST_MAGIC)
+            throw new FormatException("Expected packed list. Got 0x" + Integer.toHexString(magic), buffer.position() - 4);
+        int length = nextInt();
+        if (length < 0)
+            throw new FormatException("Invalid packed list length " + length, buffer.position() - 4);
+        return length;
+    }
+
+    /**
+     * Every packed element takes at least one byte, so at least {@code minLength} bytes are expected.
+     */
+    private byte[] nextPackedBytes(int end, int minLength) {
+        int length = nextLength(end, 1);
+        if (length < minLength)
+            throw new FormatException("Packed data of " + length + " bytes is too short", buffer.position() - 4);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads an element count and checks that the elements fit before {@code end}.
+     *
+     * @return the count or -1 for null
+     */
+    private int nextLength(int end, int elementSize) {
+        if (end - buffer.position() < 4)
+            throw new FormatException("Missing length", buffer.position());
+        int length = buffer.getInt();
+        if (length == -1)
+            return -1;
+        if (length < 0 || (long) length * elementSize > end - buffer.position())
+            throw new FormatException("Length " + length + " exceeds field", buffer.position() - 4);
+        return length;
+    }
+
+    private static int pad(int size) {
+        return (size + 3) & ~3;
+    }
+
+    public static class FormatException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int position;
+
+        public FormatException(String message, int position) {
+            super(message + " at " + position);
+            this.position = position;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes SafeParcel objects as marshalled parcel data without Android, for example on servers.
+ * <p>
+ * The data has the layout read by {@link BlobReader} and by {@code android.os.Parcel#unmarshall} on little-endian
+ * devices. Only plain data can be written this way. Methods taking a field id mirror those of {@code SafeParcelWriter}:
+ * null values are only written as empty fields if {@code mayNull} is set.
+ */
+@SuppressWarnings("MagicNumber")
+public final class BlobWriter {
+    private ByteBuffer buffer;
+
+    public BlobWriter() {
+        this(256);
+    }
+
+    public BlobWriter(int capacity) {
+        buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int position() {
+        return buffer.position();
+    }
+
+    /**
+     * @return a copy of the data written so far
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private void ensure(int bytes) {
+        if (bytes <= buffer.remaining())
+            return;
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    private void putInt(int val) {
+        ensure(4);
+        buffer.putInt(val);
+    }
+
+    private void writeHeader(int fieldId, int size) {
+        int header = SafeParcelFormat.makeHeader(fieldId, size);
+        putInt(header);
+        if (SafeParcelFormat.isLongHeader(header)) {
+            putInt(size);
+        }
+    }
+
+    /**
+     * Writes a long header with a size to be filled in by {@link #finishHeader(int)}.
+     *
+     * @return the position after the header
+     */
+    private int beginField(int fieldId) {
+        putInt(0xFFFF0000 | fieldId);
+        putInt(0);
+        return buffer.position();
+    }
+
+    private void finishHeader(int start) {
+        buffer.putInt(start - 4, buffer.position() - start);
+    }
+
+    /**
+     * Writes an object header, to be finished by {@link #finishObjectHeader(int)} after the fields were written.
+     *
+     * @return the position after the header
+     */
+    public int writeObjectHeader() {
+        return beginField(SafeParcelFormat.OBJECT_MAGIC);
+    }
+
+    public void finishObjectHeader(int start) {
+        finishHeader(start);
+    }
+
+    public void write(int fieldId, int val) {
+        writeHeader(fieldId, 4);
+        putInt(val);
+    }
+
+    public void write(int fieldId, boolean val) {
+        write(fieldId, val ? 1 : 0);
+    }
+
+    public void write(int fieldId, long val) {
+        writeHeader(fieldId, 8);
+        ensure(8);
+        buffer.putLong(val);
+    }
+
+    public void write(int fieldId, float val) {
+        writeHeader(fieldId, 4);
+        ensure(4);
+        buffer.putFloat(val);
+    }
+
+    public void write(int fieldId, double val) {
+        writeHeader(fieldId, 8);
+        ensure(8);
+        buffer.putDouble(val);
+    }
+
+    public void write(int fieldId, String val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        int start = beginField(fieldId);
+        putString(val);
+        finishHeader(start);
+    }
+
+    private void putString(String val) {
+        if (val == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(val.length());
+        int bytes = pad((val.length() + 1) * 2);
+        ensure(bytes);
+        int end = buffer.position() + bytes;
+        for (int i = 0; i < val.length(); i++) {
+            buffer.putChar(val.charAt(i));
+        }
+        while (buffer.position() < end) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    public void write(int fieldId, byte[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        int start = beginField(fieldId);
+        putBytes(val, val.length);
+        finishHeader(start);
+    }
+
+    private void putBytes(byte[] val, int length) {
+        if (val == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(length);
+        ensure(pad(length));
+        int end = buffer.position() + pad(length);
+        buffer.put(val, 0, length);
+        while (buffer.position() < end) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    public void write(int fieldId, byte[][] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        int start = beginField(fieldId);
+        putInt(val.length);
+        for (byte[] arr : val) {
+            putBytes(arr, arr == null ? 0 : arr.length);
+        }
+        finishHeader(start);
+    }
+
+    public void write(int fieldId, int[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        int start = beginField(fieldId);
+        putInt(val.length);
+        ensure(val.length * 4);
+        for (int v : val) {
+            buffer.putInt(v);
+        }
+        finishHeader(start);
+    }
+
+    public void write(int fieldId, long[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        int start = beginField(fieldId);
+        putInt(val.length);
+        ensure(val.length * 8);
+        for (long v : val) {
+            buffer.putLong(v);
+        }
+        finishHeader(start);
+    }
+
+    public void write(int fieldId, float[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        int start = beginField(fieldId);
+        putInt(val.length);
+        ensure(val.length * 4);
+        for (float v : val) {
+            buffer.putFloat(v);
+        }
+        finishHeader(start);
+    }
+
+    public void write(int fieldId, double[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        int start = beginField(fieldId);
+        putInt(val.length);
+        ensure(val.length * 8);
+        for (double v : val) {
+            buffer.putDouble(v);
+        }
+        finishHeader(start);
+    }
+
+    public void write(int fieldId, String[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        int start = beginField(fieldId);
+        putInt(val.length);
+        for (String s : val) {
+            putString(s);
+        }
+        finishHeader(start);
+    }
+
+    public void writeStringList(int fieldId, List<String> val, boolean mayNull) {
+        write(fieldId, val == null ? null : val.toArray(new String[val.size()]), mayNull);
+    }
+
+    public void writePackedIntegerList(int fieldId, int[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        byte[] bytes = new byte[val.length * VarInt.MAX_INT_SIZE];
+        int pos = 0;
+        for (int v : val) {
+            pos = VarInt.writeZigZagInt(bytes, pos, v);
+        }
+        writePacked(fieldId, val.length, bytes, pos);
+    }
+
+    public void writePackedLongList(int fieldId, long[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        byte[] bytes = new byte[val.length * VarInt.MAX_LONG_SIZE];
+        int pos = 0;
+        for (long v : val) {
+            pos = VarInt.writeZigZagLong(bytes, pos, v);
+        }
+        writePacked(fieldId, val.length, bytes, pos);
+    }
+
+    public void writePackedBooleanList(int fieldId, boolean[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) writeHeader(fieldId, 0);
+            return;
+        }
+        byte[] bytes = new byte[(val.length + 7) / 8];
+        for (int i = 0; i < val.length; i++) {
+            if (val[i]) bytes[i >> 3] |= 1 << (i & 7);
+        }
+        writePacked(fieldId, val.length, bytes, bytes.length);
+    }
+
+    private void writePacked(int fieldId, int count, byte[] bytes, int length) {
+        int start = beginField(fieldId);
+        putInt(SafeParcelFormat.PACKED_LIST_MAGIC);
+        putInt(count);
+        putBytes(bytes, length);
+        finishHeader(start);
+    }
+
+    private static int pad(int size) {
+        return (size + 3) & ~3;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming 64-bit FNV-1a hash of encoded data.
+ * <p>
+ * The hash is stable across versions and platforms, but not cryptographic: it is meant for cache keys and to find
+ * duplicates, not to protect against crafted collisions.
+ */
+@SuppressWarnings("MagicNumber")
+public final class ContentHash {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private long hash = OFFSET_BASIS;
+
+    public static long of(byte[] bytes) {
+        return new ContentHash().update(bytes).getValue();
+    }
+
+    public ContentHash update(byte[] bytes) {
+        return update(bytes, 0, bytes.length);
+    }
+
+    public ContentHash update(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length)
+            throw new IndexOutOfBoundsException();
+        long hash = this.hash;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * PRIME;
+        }
+        this.hash = hash;
+        return this;
+    }
+
+    /**
+     * Hashes the remaining bytes of the buffer, leaving its position at the limit.
+     */
+    public ContentHash update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            long hash = this.hash;
+            while (buffer.hasRemaining()) {
+                hash = (hash ^ (buffer.get() & 0xFF)) * PRIME;
+            }
+            this.hash = hash;
+        }
+        return this;
+    }
+
+    public long getValue() {
+        return hash;
+    }
+
+    public void reset() {
+        hash = OFFSET_BASIS;
+    }
+}
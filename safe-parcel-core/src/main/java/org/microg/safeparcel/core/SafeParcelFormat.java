@@ -0,0 +1,54 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.core;
+
+/**
+ * Constants and header layout of the SafeParcel format.
+ * <p>
+ * Every field starts with an int header holding the field id in the lower 16 bits and the size of the field content
+ * in the upper 16 bits. If the upper 16 bits are all set, the size follows as a separate int instead.
+ */
+@SuppressWarnings("MagicNumber")
+public final class SafeParcelFormat {
+    public static final int OBJECT_MAGIC = 0x4F45;
+    public static final int PACKED_LIST_MAGIC = 0xFFFF4F50;
+    public static final int REFERENCE_MAGIC = 0x4F52;
+    public static final int SHARED_REFERENCES_FIELD = 0xFFFE;
+    /**
+     * Replaces the length of a byte array whose content is stored outside of the parcel.
+     */
+    public static final int SPILLED_MAGIC = 0xFFFF4F53;
+
+    /**
+     * Sizes of at least this value are written in the long header form.
+     */
+    public static final int LONG_SIZE = 0xFFFF;
+
+    private SafeParcelFormat() {
+    }
+
+    public static int getFieldId(int header) {
+        return header & 0xFFFF;
+    }
+
+    public static boolean isLongHeader(int header) {
+        return (header & 0xFFFF0000) == 0xFFFF0000;
+    }
+
+    /**
+     * @return the size stored in a short header
+     */
+    public static int getShortSize(int header) {
+        return header >> 16 & 0xFFFF;
+    }
+
+    /**
+     * @return the first int of a header for the given field and size, to be followed by the size if it is a long header
+     */
+    public static int makeHeader(int fieldId, int size) {
+        return size >= LONG_SIZE ? 0xFFFF0000 | fieldId : size << 16 | fieldId;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.core;
+
+/**
+ * Zig-zag varint coding as used by packed lists.
+ */
+public final class VarInt {
+    /**
+     * Maximum number of bytes of an encoded int.
+     */
+    public static final int MAX_INT_SIZE = 5;
+    /**
+     * Maximum number of bytes of an encoded long.
+     */
+    public static final int MAX_LONG_SIZE = 10;
+
+    private VarInt() {
+    }
+
+    /**
+     * @return position after the written value
+     */
+    public static int writeZigZagInt(byte[] bytes, int pos, int val) {
+        val = (val << 1) ^ (val >> 31);
+        while ((val & ~0x7F) != 0) {
+            bytes[pos++] = (byte) ((val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+        bytes[pos++] = (byte) val;
+        return pos;
+    }
+
+    /**
+     * @return position after the written value
+     */
+    public static int writeZigZagLong(byte[] bytes, int pos, long val) {
+        val = (val << 1) ^ (val >> 63);
+        while ((val & ~0x7FL) != 0) {
+            bytes[pos++] = (byte) ((val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+        bytes[pos++] = (byte) val;
+        return pos;
+    }
+
+    /**
+     * Reads zig-zag varints from a byte array.
+     */
+    public static final class Reader {
+        private final byte[] bytes;
+        private final int end;
+        private int pos;
+
+        public Reader(byte[] bytes) {
+            this(bytes, 0, bytes.length);
+        }
+
+        public Reader(byte[] bytes, int offset, int length) {
+            if (offset < 0 || length < 0 || offset + length > bytes.length)
+                throw new IndexOutOfBoundsException();
+            this.bytes = bytes;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the data ends within the value or the value is too long
+         */
+        public int readZigZagInt() {
+            int val = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (pos >= end || shift > 28)
+                    throw new IllegalArgumentException("Malformed varint");
+                byte b = bytes[pos++];
+                val |= (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            return (val >>> 1) ^ -(val & 1);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the data ends within the value or the value is too long
+         */
+        public long readZigZagLong() {
+            long val = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (pos >= end || shift > 63)
+                    throw new IllegalArgumentException("Malformed varint");
+                byte b = bytes[pos++];
+                val |= (long) (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            return (val >>> 1) ^ -(val & 1);
+        }
+
+        public int position() {
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlobReaderTests {
+
+    private static ByteBuffer newBuffer() {
+        return ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void putHeader(ByteBuffer buffer, int fieldId, int size) {
+        buffer.putInt(SafeParcelFormat.makeHeader(fieldId, size));
+        if (SafeParcelFormat.isLongHeader(SafeParcelFormat.makeHeader(fieldId, size)))
+            buffer.putInt(size);
+    }
+
+    private static void putString(ByteBuffer buffer, String string) {
+        buffer.putInt(string.length());
+        for (char c : string.toCharArray()) {
+            buffer.putChar(c);
+        }
+        buffer.putChar('\0');
+        while (buffer.position() % 4 != 0) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    @Test
+    public void readObject() {
+        ByteBuffer buffer = newBuffer();
+        buffer.putInt(0xFFFF0000 | SafeParcelFormat.OBJECT_MAGIC);
+        int sizePos = buffer.position();
+        buffer.putInt(0);
+        int start = buffer.position();
+
+        putHeader(buffer, 1, 4);
+        buffer.putInt(42);
+        putHeader(buffer, 2, 12);
+        putString(buffer, "abc");
+        putHeader(buffer, 3, 12);
+        buffer.putInt(2).putInt(7).putInt(-7);
+        byte[] packed = new byte[VarInt.MAX_INT_SIZE * 2];
+        int packedLength = VarInt.writeZigZagInt(packed, 0, 1);
+        packedLength = VarInt.writeZigZagInt(packed, packedLength, -300);
+        putHeader(buffer, 4, 16);
+        buffer.putInt(SafeParcelFormat.PACKED_LIST_MAGIC).putInt(2).putInt(packedLength);
+        buffer.put(packed, 0, packedLength).put((byte) 0);
+        putHeader(buffer, 5, 0);
+        buffer.putInt(sizePos, buffer.position() - start);
+
+        BlobReader reader = new BlobReader(toBytes(buffer));
+        int end = reader.readObjectHeader();
+        assertEquals(42, reader.readInt(reader.readHeader()));
+        assertEquals("abc", reader.readString(reader.readHeader()));
+        assertArrayEquals(new int[]{7, -7}, reader.readIntArray(reader.readHeader()));
+        assertArrayEquals(new int[]{1, -300}, reader.readPackedIntegerList(reader.readHeader()));
+        assertNull(reader.readString(reader.readHeader()));
+        assertEquals(end, reader.position());
+        assertEquals(0, reader.remaining());
+    }
+
+    @Test
+    public void byteArrayViews() {
+        ByteBuffer buffer = newBuffer();
+        putHeader(buffer, 1, 12);
+        buffer.putInt(5).put(new byte[]{1, 2, 3, 4, 5}).putShort((short) 0).put((byte) 0);
+        putHeader(buffer, 2, 16);
+        buffer.putInt(2).putInt(2).put(new byte[]{6, 7}).putShort((short) 0).putInt(-1);
+        byte[] bytes = toBytes(buffer);
+
+        BlobReader reader = new BlobReader(bytes);
+        ByteBuffer view = reader.readByteArrayView(reader.readHeader());
+        ByteBuffer[] views = reader.readByteArrayArrayView(reader.readHeader());
+        assertEquals(0, reader.remaining());
+        assertTrue(view.isReadOnly());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}), view);
+        assertEquals(2, views.length);
+        assertEquals(ByteBuffer.wrap(new byte[]{6, 7}), views[0]);
+        assertNull(views[1]);
+
+        reader.position(0);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, reader.readByteArray(reader.readHeader()));
+        byte[][] arrays = reader.readByteArrayArray(reader.readHeader());
+        assertArrayEquals(new byte[]{6, 7}, arrays[0]);
+        assertNull(arrays[1]);
+
+        bytes[8] = 42;
+        assertEquals(42, view.get(0));
+    }
+
+    @Test
+    public void truncatedField() {
+        ByteBuffer buffer = newBuffer();
+        putHeader(buffer, 1, 8);
+        buffer.putInt(1);
+        BlobReader reader = new BlobReader(toBytes(buffer));
+        try {
+            reader.readLong(reader.readHeader());
+            fail();
+        } catch (BlobReader.FormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void lengthExceedsField() {
+        ByteBuffer buffer = newBuffer();
+        putHeader(buffer, 1, 8);
+        buffer.putInt(Integer.MAX_VALUE).putInt(0);
+        BlobReader reader = new BlobReader(toBytes(buffer));
+        try {
+            reader.readIntArray(reader.readHeader());
+            fail();
+        } catch (BlobReader.FormatException e) {
+            assertEquals(4, e.getPosition());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlobWriterTests {
+
+    @Test
+    public void roundTrip() {
+        BlobWriter writer = new BlobWriter(4);
+        int start = writer.writeObjectHeader();
+        writer.write(1, 42);
+        writer.write(2, true);
+        writer.write(3, -1L);
+        writer.write(4, 1.5f);
+        writer.write(5, 2.5);
+        writer.write(6, "abc", false);
+        writer.write(7, (String) null, true);
+        writer.write(8, new byte[]{1, 2, 3, 4, 5}, false);
+        writer.write(9, new byte[][]{{6}, null}, false);
+        writer.write(10, new int[]{7, -7}, false);
+        writer.write(11, new long[]{Long.MAX_VALUE}, false);
+        writer.write(12, new float[]{0.5f}, false);
+        writer.write(13, new double[]{0.25}, false);
+        writer.writeStringList(14, Arrays.asList("d", null, "efgh"), false);
+        writer.writePackedIntegerList(15, new int[]{1, -300}, false);
+        writer.writePackedLongList(16, new long[]{Long.MIN_VALUE}, false);
+        writer.writePackedBooleanList(17, new boolean[]{true, false, true}, false);
+        writer.write(18, (int[]) null, false);
+        writer.finishObjectHeader(start);
+
+        BlobReader reader = new BlobReader(writer.toByteArray());
+        int end = reader.readObjectHeader();
+        assertEquals(42, reader.readInt(reader.readHeader()));
+        assertTrue(reader.readBool(reader.readHeader()));
+        assertEquals(-1L, reader.readLong(reader.readHeader()));
+        assertEquals(1.5f, reader.readFloat(reader.readHeader()), 0);
+        assertEquals(2.5, reader.readDouble(reader.readHeader()), 0);
+        assertEquals("abc", reader.readString(reader.readHeader()));
+        assertNull(reader.readString(reader.readHeader()));
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, reader.readByteArray(reader.readHeader()));
+        byte[][] arrays = reader.readByteArrayArray(reader.readHeader());
+        assertArrayEquals(new byte[]{6}, arrays[0]);
+        assertNull(arrays[1]);
+        assertArrayEquals(new int[]{7, -7}, reader.readIntArray(reader.readHeader()));
+        assertArrayEquals(new long[]{Long.MAX_VALUE}, reader.readLongArray(reader.readHeader()));
+        assertArrayEquals(new float[]{0.5f}, reader.readFloatArray(reader.readHeader()), 0);
+        assertArrayEquals(new double[]{0.25}, reader.readDoubleArray(reader.readHeader()), 0);
+        assertEquals(Arrays.asList("d", null, "efgh"), reader.readStringList(reader.readHeader()));
+        assertArrayEquals(new int[]{1, -300}, reader.readPackedIntegerList(reader.readHeader()));
+        assertArrayEquals(new long[]{Long.MIN_VALUE}, reader.readPackedLongList(reader.readHeader()));
+        boolean[] booleans = reader.readPackedBooleanList(reader.readHeader());
+        assertEquals(3, booleans.length);
+        assertTrue(booleans[0]);
+        assertFalse(booleans[1]);
+        assertTrue(booleans[2]);
+        assertEquals(end, reader.position());
+        assertEquals(0, reader.remaining());
+    }
+
+    @Test
+    public void longField() {
+        BlobWriter writer = new BlobWriter();
+        byte[] large = new byte[SafeParcelFormat.LONG_SIZE + 1];
+        large[large.length - 1] = 9;
+        writer.write(1, large, false);
+        BlobReader reader = new BlobReader(writer.toByteArray());
+        assertArrayEquals(large, reader.readByteArray(reader.readHeader()));
+    }
+}
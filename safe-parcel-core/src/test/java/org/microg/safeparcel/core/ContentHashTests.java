@@ -0,0 +1,41 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContentHashTests {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void knownValues() {
+        assertEquals(0xcbf29ce484222325L, ContentHash.of(new byte[0]));
+        assertEquals(0xaf63dc4c8601ec8cL, ContentHash.of("a".getBytes(ASCII)));
+        assertEquals(0x85944171f73967e8L, ContentHash.of("foobar".getBytes(ASCII)));
+    }
+
+    @Test
+    public void streaming() {
+        byte[] bytes = "foobar".getBytes(ASCII);
+        ContentHash hash = new ContentHash().update(bytes, 0, 2);
+        hash.update(directOf(bytes, 2, 4));
+        assertEquals(ContentHash.of(bytes), hash.getValue());
+        hash.reset();
+        assertEquals(ContentHash.of(bytes), hash.update(ByteBuffer.wrap(bytes)).getValue());
+    }
+
+    private static ByteBuffer directOf(byte[] bytes, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(bytes, offset, length);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -6,8 +6,10 @@
 package org.microg.safeparcel;
 
 import android.os.Parcel;
+import android.os.Parcelable;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 
 public abstract class AutoSafeParcelable implements SafeParcelable {
     @Override
@@ -17,7 +19,38 @@ public abstract class AutoSafeParcelable implements SafeParcelable {
 
     @Override
     public void writeToParcel(Parcel out, int flags) {
-        SafeParcelUtil.writeObject(this, out, flags);
+        boolean ownsSpillPolicy = SafeParcelWriter.enterSpillPolicy(getSpillPolicy());
+        try {
+            SafeParcelUtil.writeObject(this, out, flags, getFieldMask());
+        } finally {
+            if (ownsSpillPolicy) {
+                SafeParcelWriter.restoreSpillPolicy(null);
+            }
+        }
+    }
+
+    public void writeToParcel(Parcel out, int flags, FieldMask mask) {
+        SafeParcelUtil.writeObject(this, out, flags, mask);
+    }
+
+    /**
+     * Override to restrict the fields written by {@link #writeToParcel(Parcel, int)}, for example to a subset of fields
+     * requested by the receiver.
+     *
+     * @return the fields to write or null to write all fields
+     */
+    protected FieldMask getFieldMask() {
+        return null;
+    }
+
+    /**
+     * Override to move large byte arrays out of the parcel when written by {@link #writeToParcel(Parcel, int)}, see
+     * {@link SafeParcelWriter#writeSpilling(Parcelable, Parcel, int, SpillPolicy)}.
+     *
+     * @return the policy to use or null to write all fields inline
+     */
+    protected SpillPolicy getSpillPolicy() {
+        return null;
     }
 
     public static class AutoCreator<T extends SafeParcelable> implements Creator<T> {
@@ -39,4 +72,64 @@ public abstract class AutoSafeParcelable implements SafeParcelable {
             return (T[]) Array.newInstance(tClass, i);
         }
     }
+
+    /**
+     * {@link AutoCreator} that takes instances from a pool and reads into them, instead of creating new ones.
+     * <p>
+     * Instances are handed back to the pool using {@link #release(AutoSafeParcelable)} once they are no longer used, at
+     * most once per instance handed out. After that, neither the instance nor any object reachable through its fields
+     * may be used anymore, as they are overwritten when the instance is handed out again, see
+     * {@link SafeParcelUtil#readObjectReusing}. Each thread has its own pool, holding up to {@code capacity} instances.
+     * Instances released on a thread are only reused by that thread.
+     */
+    public static class PooledAutoCreator<T extends AutoSafeParcelable> extends AutoCreator<T> {
+        private final Class<T> tClass;
+        private final int capacity;
+        private final ThreadLocal<ArrayList<T>> pool = new ThreadLocal<ArrayList<T>>() {
+            @Override
+            protected ArrayList<T> initialValue() {
+                return new ArrayList<>(capacity);
+            }
+        };
+
+        public PooledAutoCreator(Class<T> tClass) {
+            this(tClass, 16);
+        }
+
+        public PooledAutoCreator(Class<T> tClass, int capacity) {
+            super(tClass);
+            if (capacity < 0) throw new IllegalArgumentException();
+            this.tClass = tClass;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public T createFromParcel(Parcel parcel) {
+            ArrayList<T> instances = pool.get();
+            if (instances.isEmpty())
+                return super.createFromParcel(parcel);
+            T instance = instances.remove(instances.size() - 1);
+            T result = null;
+            try {
+                result = SafeParcelUtil.createObject(tClass, parcel, instance);
+                return result;
+            } finally {
+                if (result != instance) {
+                    instances.add(instance);
+                }
+            }
+        }
+
+        /**
+         * Hands an instance back to the pool of the calling thread. The instance is dropped if the pool is full.
+         */
+        public void release(T instance) {
+            if (instance == null || instance.getClass() != tClass)
+                return;
+            ArrayList<T> instances = pool.get();
+            if (instances.size() < capacity) {
+                instances.add(instance);
+            }
+        }
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+/**
+ * Limits applied by {@link SafeParcelReader} when decoding, see {@link SafeParcelReader#setDecodeLimits(DecodeLimits)}.
+ * <p>
+ * Independent of these limits, collection lengths are always checked against the number of bytes remaining in their
+ * field before anything is allocated.
+ */
+public final class DecodeLimits {
+    public static final DecodeLimits DEFAULT = new DecodeLimits(Integer.MAX_VALUE, 256, Long.MAX_VALUE);
+
+    private final int maxCollectionLength;
+    private final int maxDepth;
+    private final long maxAllocation;
+
+    /**
+     * @param maxCollectionLength maximum number of elements in a single array, list or map
+     * @param maxDepth            maximum nesting depth of objects read through {@link SafeParcelUtil}
+     * @param maxAllocation       maximum number of bytes allocated for arrays, lists and maps of one outermost object,
+     *                            estimated from their size in the parcel
+     */
+    public DecodeLimits(int maxCollectionLength, int maxDepth, long maxAllocation) {
+        if (maxCollectionLength < 0 || maxDepth < 1 || maxAllocation < 0)
+            throw new IllegalArgumentException();
+        this.maxCollectionLength = maxCollectionLength;
+        this.maxDepth = maxDepth;
+        this.maxAllocation = maxAllocation;
+    }
+
+    public int getMaxCollectionLength() {
+        return maxCollectionLength;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getMaxAllocation() {
+        return maxAllocation;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Parcel;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+
+/**
+ * Encoded form of objects of classes marked with {@link SafeParcelable.Options#immutable()}.
+ * <p>
+ * Entries are keyed by the identity of the object and dropped once it is garbage collected. The encoded form is kept in
+ * a private {@link Parcel} and appended to the target parcel when the same object is written again with the same flags.
+ * The first entry for an object is kept. Entries are only recycled under their own lock, which {@link #append} also
+ * holds while copying, so a parcel is never copied from after it was recycled.
+ */
+final class EncodingCache {
+    private final HashMap<Key, Entry> entries = new HashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    /**
+     * @return true if the encoded object was appended to the parcel
+     */
+    boolean append(Object object, int flags, Parcel parcel) {
+        Entry entry;
+        synchronized (this) {
+            expunge();
+            entry = entries.get(new Key(object, null));
+        }
+        if (entry == null || entry.flags != flags)
+            return false;
+        synchronized (entry) {
+            if (entry.recycled)
+                return false;
+            parcel.appendFrom(entry.encoded, 0, entry.encoded.dataSize());
+        }
+        return true;
+    }
+
+    /**
+     * Keeps a copy of the encoded object found at {@code offset} in the parcel, unless there already is one.
+     */
+    void put(Object object, int flags, Parcel parcel, int offset, int length) {
+        Key key = new Key(object, queue);
+        synchronized (this) {
+            expunge();
+            if (entries.containsKey(key))
+                return;
+        }
+        Parcel encoded = ParcelFactory.obtainParcel();
+        encoded.appendFrom(parcel, offset, length);
+        synchronized (this) {
+            if (!entries.containsKey(key)) {
+                entries.put(key, new Entry(flags, encoded));
+                return;
+            }
+        }
+        encoded.recycle();
+    }
+
+    private void expunge() {
+        Reference<?> reference;
+        while ((reference = queue.poll()) != null) {
+            Entry entry = entries.remove(reference);
+            if (entry != null) {
+                entry.recycle();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final int flags;
+        private final Parcel encoded;
+        private boolean recycled;
+
+        private Entry(int flags, Parcel encoded) {
+            this.flags = flags;
+            this.encoded = encoded;
+        }
+
+        private synchronized void recycle() {
+            recycled = true;
+            encoded.recycle();
+        }
+    }
+
+    private static final class Key extends WeakReference<Object> {
+        private final int hash;
+
+        private Key(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Object referent = get();
+            return referent != null && referent == ((Key) o).get();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of field ids to write, see {@link SafeParcelUtil#writeObject(SafeParcelable, android.os.Parcel, int, FieldMask)}.
+ * <p>
+ * A mask only applies to the object it is used for, nested objects are written with all their fields.
+ */
+public final class FieldMask {
+    private final int[] fieldIds;
+
+    private FieldMask(int[] fieldIds) {
+        this.fieldIds = fieldIds;
+    }
+
+    public static FieldMask of(int... fieldIds) {
+        int[] ids = fieldIds.clone();
+        Arrays.sort(ids);
+        return new FieldMask(ids);
+    }
+
+    public boolean contains(int fieldId) {
+        return Arrays.binarySearch(fieldIds, fieldId) >= 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FieldMask && Arrays.equals(fieldIds, ((FieldMask) o).fieldIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(fieldIds);
+    }
+
+    @Override
+    public String toString() {
+        return "FieldMask" + Arrays.toString(fieldIds);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+/**
+ * Holder for a {@link Bundle} that is unparcelled only on first access.
+ * <p>
+ * Fields declared with this type are written and read in the same format as {@link Bundle} fields. When reading, the
+ * raw content of the field is copied to a private {@link Parcel} and only unparcelled by {@link #get()}. A holder that
+ * was never accessed is written by copying the raw content, without resolving any of the classes in the bundle.
+ */
+public final class LazyBundle {
+    private final ClassLoader classLoader;
+    private Parcel raw;
+    private Bundle bundle;
+
+    public LazyBundle(Bundle bundle) {
+        if (bundle == null) throw new NullPointerException();
+        this.classLoader = null;
+        this.bundle = bundle;
+    }
+
+    private LazyBundle(Parcel raw, ClassLoader classLoader) {
+        this.raw = raw;
+        this.classLoader = classLoader;
+    }
+
+    static LazyBundle readFrom(Parcel parcel, int size, ClassLoader classLoader) {
+        Parcel raw = ParcelFactory.obtainParcel();
+        raw.appendFrom(parcel, parcel.dataPosition(), size);
+        return new LazyBundle(raw, classLoader);
+    }
+
+    synchronized LazyBundle copy() {
+        if (raw != null) {
+            Parcel copy = ParcelFactory.obtainParcel();
+            copy.appendFrom(raw, 0, raw.dataSize());
+            return new LazyBundle(copy, classLoader);
+        }
+        return new LazyBundle(new Bundle(bundle));
+    }
+
+    public synchronized Bundle get() {
+        if (raw != null) {
+            raw.setDataPosition(0);
+            bundle = raw.readBundle(classLoader);
+            raw.recycle();
+            raw = null;
+        }
+        return bundle;
+    }
+
+    /**
+     * @return true if the bundle is available without unparcelling.
+     */
+    public synchronized boolean isUnparcelled() {
+        return raw == null;
+    }
+
+    synchronized void writeTo(Parcel parcel) {
+        if (raw != null) {
+            parcel.appendFrom(raw, 0, raw.dataSize());
+        } else {
+            parcel.writeBundle(bundle);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isUnparcelled() ? "LazyBundle{" + bundle + "}" : "LazyBundle{parcelled}";
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Parcel;
+
+/**
+ * Obtains the {@link Parcel}s the library uses internally, for example in streams, lazy bundles and the encoding cache.
+ * <p>
+ * The default uses {@link Parcel#obtain()}, tests running on the JVM replace it with one returning mock parcels.
+ */
+abstract class ParcelFactory {
+    private static final ParcelFactory DEFAULT = new ParcelFactory() {
+        @Override
+        Parcel obtain() {
+            return Parcel.obtain();
+        }
+    };
+    private static volatile ParcelFactory instance = DEFAULT;
+
+    abstract Parcel obtain();
+
+    /**
+     * @param factory the factory to use or null to restore the default
+     */
+    static void setInstance(ParcelFactory factory) {
+        instance = factory != null ? factory : DEFAULT;
+    }
+
+    static Parcel obtainParcel() {
+        return instance.obtain();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Fixed-size {@link java.util.List} views backed by primitive arrays.
+ * <p>
+ * Fields declared with one of these types are written and read in the same format as direct lists
+ * (see {@link SafeParcelable.Field#useDirectList()}), without keeping one boxed object per element.
+ */
+public final class PrimitiveLists {
+
+    private PrimitiveLists() {
+    }
+
+    public static final class IntList extends AbstractList<Integer> implements RandomAccess {
+        private final int[] values;
+
+        public IntList(int[] values) {
+            if (values == null) throw new NullPointerException();
+            this.values = values;
+        }
+
+        public int getInt(int index) {
+            return values[index];
+        }
+
+        public int[] array() {
+            return values;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public Integer set(int index, Integer element) {
+            int old = values[index];
+            values[index] = element;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+
+    public static final class LongList extends AbstractList<Long> implements RandomAccess {
+        private final long[] values;
+
+        public LongList(long[] values) {
+            if (values == null) throw new NullPointerException();
+            this.values = values;
+        }
+
+        public long getLong(int index) {
+            return values[index];
+        }
+
+        public long[] array() {
+            return values;
+        }
+
+        @Override
+        public Long get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public Long set(int index, Long element) {
+            long old = values[index];
+            values[index] = element;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+
+    public static final class FloatList extends AbstractList<Float> implements RandomAccess {
+        private final float[] values;
+
+        public FloatList(float[] values) {
+            if (values == null) throw new NullPointerException();
+            this.values = values;
+        }
+
+        public float getFloat(int index) {
+            return values[index];
+        }
+
+        public float[] array() {
+            return values;
+        }
+
+        @Override
+        public Float get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public Float set(int index, Float element) {
+            float old = values[index];
+            values[index] = element;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+
+    public static final class DoubleList extends AbstractList<Double> implements RandomAccess {
+        private final double[] values;
+
+        public DoubleList(double[] values) {
+            if (values == null) throw new NullPointerException();
+            this.values = values;
+        }
+
+        public double getDouble(int index) {
+            return values[index];
+        }
+
+        public double[] array() {
+            return values;
+        }
+
+        @Override
+        public Double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public Double set(int index, Double element) {
+            double old = values[index];
+            values[index] = element;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+}
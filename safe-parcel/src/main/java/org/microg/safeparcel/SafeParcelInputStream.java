@@ -0,0 +1,111 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads {@link Parcelable}s from a stream written by {@link SafeParcelOutputStream}.
+ * <p>
+ * Frames are read one at a time into a buffer and then into a {@link Parcel} that is reused for all frames, so the
+ * object currently read is held twice. The buffer is kept for following frames only if it is at most
+ * {@link #RETAINED_BUFFER_SIZE} bytes, larger frames get a buffer of their own. Frames larger than the configured
+ * maximum are rejected before anything is allocated.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class SafeParcelInputStream implements Closeable {
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    public static final int RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+    private final int maxFrameSize;
+    private byte[] buffer;
+    private Parcel parcel;
+
+    public SafeParcelInputStream(InputStream in) {
+        this(in, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public SafeParcelInputStream(InputStream in, int maxFrameSize) {
+        if (maxFrameSize < 0) throw new IllegalArgumentException();
+        this.in = new DataInputStream(in);
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @return the next object or null if the stream ended before the next frame
+     * @throws java.io.EOFException if the stream ended within a frame
+     */
+    public <T extends Parcelable> T read(Parcelable.Creator<T> creator) throws IOException {
+        int size = readFrameSize();
+        if (size < 0)
+            return null;
+        byte[] bytes = buffer;
+        if (bytes == null || bytes.length < size) {
+            bytes = new byte[size];
+            if (size <= RETAINED_BUFFER_SIZE)
+                buffer = bytes;
+        }
+        in.readFully(bytes, 0, size);
+        if (parcel == null) {
+            parcel = ParcelFactory.obtainParcel();
+        } else {
+            parcel.setDataPosition(0);
+            parcel.setDataSize(0);
+        }
+        parcel.unmarshall(bytes, 0, size);
+        parcel.setDataPosition(0);
+        return creator.createFromParcel(parcel);
+    }
+
+    /**
+     * Skips the next object without reading it.
+     *
+     * @return false if the stream ended before the next frame
+     */
+    public boolean skip() throws IOException {
+        int size = readFrameSize();
+        if (size < 0)
+            return false;
+        int skipped = 0;
+        while (skipped < size) {
+            int n = in.skipBytes(size - skipped);
+            if (n <= 0) {
+                in.readByte();
+                n = 1;
+            }
+            skipped += n;
+        }
+        return true;
+    }
+
+    private int readFrameSize() throws IOException {
+        int first = in.read();
+        if (first < 0)
+            return -1;
+        int size = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+        if (size < 0 || size > maxFrameSize)
+            throw new IOException("Invalid frame size " + size);
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (parcel != null) {
+            parcel.recycle();
+            parcel = null;
+        }
+        buffer = null;
+        in.close();
+    }
+}
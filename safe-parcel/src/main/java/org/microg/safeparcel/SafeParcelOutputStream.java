@@ -0,0 +1,69 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes {@link Parcelable}s to a stream, one frame per object, to be read by {@link SafeParcelInputStream}.
+ * <p>
+ * Each frame is the size of the marshalled parcel data as big-endian int, followed by the data itself, which is what
+ * {@link SafeParcelUtil#asByteArray(Parcelable)} returns for the object. Fields are not streamed individually.
+ * Objects are written one at a time into a single {@link Parcel} that is reused for all frames, so only the object
+ * currently written is held in memory. It is held twice though, in the parcel and in the array returned by
+ * {@link Parcel#marshall()}, which is the only way to get the data of a parcel that holds no binders or file
+ * descriptors. The data is only meant to be read on devices with the same byte order.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class SafeParcelOutputStream implements Closeable, Flushable {
+    private final DataOutputStream out;
+    private Parcel parcel;
+
+    public SafeParcelOutputStream(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    public void write(Parcelable parcelable) throws IOException {
+        if (parcelable == null) throw new NullPointerException();
+        if (parcel == null) {
+            parcel = ParcelFactory.obtainParcel();
+        } else {
+            parcel.setDataPosition(0);
+            parcel.setDataSize(0);
+        }
+        SpillPolicy spillPolicy = SafeParcelWriter.enterInline();
+        try {
+            parcelable.writeToParcel(parcel, 0);
+        } finally {
+            SafeParcelWriter.restoreSpillPolicy(spillPolicy);
+        }
+        byte[] bytes = parcel.marshall();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (parcel != null) {
+            parcel.recycle();
+            parcel = null;
+        }
+        out.close();
+    }
+}
@@ -10,22 +10,127 @@ import android.os.IBinder;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import org.microg.safeparcel.core.SafeParcelFormat;
+import org.microg.safeparcel.core.VarInt;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 
 @SuppressWarnings("MagicNumber")
 public final class SafeParcelReader {
 
+    private static volatile DecodeLimits decodeLimits = DecodeLimits.DEFAULT;
+    private static final ThreadLocal<DecodeState> decodeState = new ThreadLocal<>();
+    private static volatile SpillPolicy spillPolicy;
+
     private SafeParcelReader() {
     }
 
+    public static DecodeLimits getDecodeLimits() {
+        return decodeLimits;
+    }
+
+    public static void setDecodeLimits(DecodeLimits limits) {
+        if (limits == null) throw new NullPointerException();
+        decodeLimits = limits;
+    }
+
+    public static SpillPolicy getSpillPolicy() {
+        return spillPolicy;
+    }
+
+    /**
+     * Sets the policy used to read byte arrays that were moved out of the parcel, see
+     * {@link SafeParcelWriter#writeSpilling(Parcelable, Parcel, int, SpillPolicy)}. Spilled fields are rejected while
+     * no policy is set, as reading them means reading from a file descriptor sent by the peer.
+     */
+    public static void setSpillPolicy(SpillPolicy policy) {
+        spillPolicy = policy;
+    }
+
+    static void enterObject(Parcel parcel) {
+        DecodeState state = decodeState.get();
+        if (state == null) {
+            state = new DecodeState();
+            decodeState.set(state);
+        }
+        if (state.depth == 0) {
+            state.limits = decodeLimits;
+            state.allocated = 0;
+        }
+        if (state.depth >= state.limits.getMaxDepth())
+            throw new LimitExceededException("Objects nested deeper than " + state.limits.getMaxDepth(), parcel);
+        state.depth++;
+    }
+
+    static void exitObject() {
+        decodeState.get().depth--;
+    }
+
+    private static void checkLength(Parcel parcel, int length, int end, int elementSize) {
+        if (length < 0)
+            throw new ReadException("Invalid length " + length, parcel);
+        long bytes = (long) length * elementSize;
+        if (bytes > end - parcel.dataPosition())
+            throw new LimitExceededException("Length " + length + " exceeds remaining size " + (end - parcel.dataPosition()), parcel);
+        checkAllocation(parcel, length, bytes);
+    }
+
+    private static void checkAllocation(Parcel parcel, int length, long bytes) {
+        DecodeState state = decodeState.get();
+        boolean nested = state != null && state.depth > 0;
+        DecodeLimits limits = nested ? state.limits : decodeLimits;
+        if (length > limits.getMaxCollectionLength())
+            throw new LimitExceededException("Length " + length + " exceeds limit " + limits.getMaxCollectionLength(), parcel);
+        long allocated = nested ? state.allocated + bytes : bytes;
+        if (allocated > limits.getMaxAllocation())
+            throw new LimitExceededException("Allocation of " + allocated + " bytes exceeds limit " + limits.getMaxAllocation(), parcel);
+        if (nested) state.allocated = allocated;
+    }
+
+    /**
+     * Checks the length prefix of an array or list that is created by the parcel, without consuming it.
+     */
+    private static void checkArrayLength(Parcel parcel, int end, int elementSize) {
+        int start = parcel.dataPosition();
+        if (end - start < 4)
+            throw new ReadException("Missing length", parcel);
+        int length = parcel.readInt();
+        if (length != -1)
+            checkLength(parcel, length, end, elementSize);
+        parcel.setDataPosition(start);
+    }
+
+    /**
+     * Checks whether the array at the current position has the given length and fits in the field, without consuming it.
+     */
+    private static boolean hasLength(Parcel parcel, int end, int length, int elementSize) {
+        int start = parcel.dataPosition();
+        if (end - start < 4)
+            return false;
+        boolean result = parcel.readInt() == length && (long) length * elementSize <= end - parcel.dataPosition();
+        parcel.setDataPosition(start);
+        return result;
+    }
+
+    private static <T> ArrayList<T> reuseList(ArrayList<T> dest, int length) {
+        if (dest == null)
+            return new ArrayList<>(length);
+        dest.clear();
+        dest.ensureCapacity(length);
+        return dest;
+    }
+
     @Deprecated
     public static int halfOf(int i) {
         return i & 0xFFFF;
     }
 
     public static int getFieldId(int header) {
-        return header & 0xFFFF;
+        return SafeParcelFormat.getFieldId(header);
     }
 
     @Deprecated
@@ -37,9 +142,9 @@ public final class SafeParcelReader {
         return parcel.readInt();
     }
 
-    private static int readSize(Parcel parcel, int header) {
-        if ((header & 0xFFFF0000) != 0xFFFF0000)
-            return header >> 16 & 0xFFFF;
+    static int readSize(Parcel parcel, int header) {
+        if (!SafeParcelFormat.isLongHeader(header))
+            return SafeParcelFormat.getShortSize(header);
         return parcel.readInt();
     }
 
@@ -66,6 +171,25 @@ public final class SafeParcelReader {
         return end;
     }
 
+    /**
+     * @return the index of the referenced object or -1 if the parcel does not continue with an object reference,
+     * in which case the data position is left unchanged.
+     */
+    public static int readObjectReference(Parcel parcel) {
+        int start = parcel.dataPosition();
+        if (parcel.dataAvail() < 4)
+            return -1;
+        int header = readHeader(parcel);
+        if (getFieldId(header) != SafeParcelable.SAFE_PARCEL_REFERENCE_MAGIC) {
+            parcel.setDataPosition(start);
+            return -1;
+        }
+        int index = readInt(parcel, header);
+        if (index < 0)
+            throw new ReadException("Invalid object reference " + index, parcel);
+        return index;
+    }
+
     public static int readInt(Parcel parcel, int header) {
         readExpectedSize(parcel, header, 4);
         return parcel.readInt();
@@ -111,6 +235,10 @@ public final class SafeParcelReader {
         return string;
     }
 
+    public static String readString(Parcel parcel, int header, StringCache cache) {
+        return cache.intern(readString(parcel, header));
+    }
+
     public static IBinder readBinder(Parcel parcel, int header) {
         int size = readSize(parcel, header);
         if (size == 0)
@@ -136,6 +264,7 @@ public final class SafeParcelReader {
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 4);
         ArrayList list = parcel.readArrayList(classLoader);
         parcel.setDataPosition(start + size);
         return list;
@@ -146,6 +275,7 @@ public final class SafeParcelReader {
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 8);
         HashMap map = parcel.readHashMap(classLoader);
         parcel.setDataPosition(start + size);
         return map;
@@ -156,28 +286,97 @@ public final class SafeParcelReader {
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 4);
         ArrayList<T> list = parcel.createTypedArrayList(creator);
         parcel.setDataPosition(start + size);
         return list;
     }
 
+    public static <T extends Parcelable> ArrayList<T> readParcelableList(Parcel parcel, int header, Parcelable.Creator<T> creator, ArrayList<T> dest) {
+        if (dest == null)
+            return readParcelableList(parcel, header, creator);
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        int length = parcel.readInt();
+        ArrayList<T> list = null;
+        if (length != -1) {
+            checkLength(parcel, length, start + size, 4);
+            list = reuseList(dest, length);
+            for (int i = 0; i < length; i++) {
+                list.add(parcel.readInt() != 0 ? creator.createFromParcel(parcel) : null);
+            }
+        }
+        parcel.setDataPosition(start + size);
+        return list;
+    }
+
+    public static <T> T read(Parcel parcel, int header, TypeAdapter<T> adapter) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        T value = adapter.read(parcel);
+        if (parcel.dataPosition() > start + size)
+            throw new ReadException("Adapter read beyond field of size " + size, parcel);
+        parcel.setDataPosition(start + size);
+        return value;
+    }
+
     public static ArrayList<String> readStringList(Parcel parcel, int header) {
         int size = readSize(parcel, header);
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 4);
         ArrayList<String> list = parcel.createStringArrayList();
         parcel.setDataPosition(start + size);
         return list;
     }
 
+    public static ArrayList<String> readStringList(Parcel parcel, int header, StringCache cache) {
+        ArrayList<String> list = readStringList(parcel, header);
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++) {
+                list.set(i, cache.intern(list.get(i)));
+            }
+        }
+        return list;
+    }
+
+    public static ArrayList<String> readStringList(Parcel parcel, int header, ArrayList<String> dest) {
+        if (dest == null)
+            return readStringList(parcel, header);
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        int length = parcel.readInt();
+        ArrayList<String> list = null;
+        if (length != -1) {
+            checkLength(parcel, length, start + size, 4);
+            list = reuseList(dest, length);
+            for (int i = 0; i < length; i++) {
+                list.add(parcel.readString());
+            }
+        }
+        parcel.setDataPosition(start + size);
+        return list;
+    }
+
     public static ArrayList<Integer> readIntegerList(Parcel parcel, int header) {
+        return readIntegerList(parcel, header, null);
+    }
+
+    public static ArrayList<Integer> readIntegerList(Parcel parcel, int header, ArrayList<Integer> dest) {
         int size = readSize(parcel, header);
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
         int length = parcel.readInt();
-        ArrayList<Integer> list = new ArrayList<>(length);
+        checkLength(parcel, length, start + size, 4);
+        ArrayList<Integer> list = reuseList(dest, length);
         for (int i = 0; i < length; i++) {
             list.add(parcel.readInt());
         }
@@ -186,12 +385,17 @@ public final class SafeParcelReader {
     }
 
     public static ArrayList<Long> readLongList(Parcel parcel, int header) {
+        return readLongList(parcel, header, null);
+    }
+
+    public static ArrayList<Long> readLongList(Parcel parcel, int header, ArrayList<Long> dest) {
         int size = readSize(parcel, header);
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
         int length = parcel.readInt();
-        ArrayList<Long> list = new ArrayList<>(length);
+        checkLength(parcel, length, start + size, 8);
+        ArrayList<Long> list = reuseList(dest, length);
         for (int i = 0; i < length; i++) {
             list.add(parcel.readLong());
         }
@@ -200,12 +404,17 @@ public final class SafeParcelReader {
     }
 
     public static ArrayList<Float> readFloatList(Parcel parcel, int header) {
+        return readFloatList(parcel, header, null);
+    }
+
+    public static ArrayList<Float> readFloatList(Parcel parcel, int header, ArrayList<Float> dest) {
         int size = readSize(parcel, header);
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
         int length = parcel.readInt();
-        ArrayList<Float> list = new ArrayList<>(length);
+        checkLength(parcel, length, start + size, 4);
+        ArrayList<Float> list = reuseList(dest, length);
         for (int i = 0; i < length; i++) {
             list.add(parcel.readFloat());
         }
@@ -214,12 +423,17 @@ public final class SafeParcelReader {
     }
 
     public static ArrayList<Double> readDoubleList(Parcel parcel, int header) {
+        return readDoubleList(parcel, header, null);
+    }
+
+    public static ArrayList<Double> readDoubleList(Parcel parcel, int header, ArrayList<Double> dest) {
         int size = readSize(parcel, header);
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
         int length = parcel.readInt();
-        ArrayList<Double> list = new ArrayList<>(length);
+        checkLength(parcel, length, start + size, 8);
+        ArrayList<Double> list = reuseList(dest, length);
         for (int i = 0; i < length; i++) {
             list.add(parcel.readDouble());
         }
@@ -228,12 +442,17 @@ public final class SafeParcelReader {
     }
 
     public static ArrayList<Boolean> readBooleanList(Parcel parcel, int header) {
+        return readBooleanList(parcel, header, null);
+    }
+
+    public static ArrayList<Boolean> readBooleanList(Parcel parcel, int header, ArrayList<Boolean> dest) {
         int size = readSize(parcel, header);
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
         int length = parcel.readInt();
-        ArrayList<Boolean> list = new ArrayList<>(length);
+        checkLength(parcel, length, start + size, 4);
+        ArrayList<Boolean> list = reuseList(dest, length);
         for (int i = 0; i < length; i++) {
             list.add(parcel.readInt() != 0);
         }
@@ -241,11 +460,111 @@ public final class SafeParcelReader {
         return list;
     }
 
+    public static ArrayList<Integer> readPackedIntegerList(Parcel parcel, int header) {
+        return readPackedIntegerList(parcel, header, null);
+    }
+
+    public static ArrayList<Integer> readPackedIntegerList(Parcel parcel, int header, ArrayList<Integer> dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        int length = readPackedLength(parcel);
+        byte[] bytes = readPackedBytes(parcel, start + size);
+        checkPackedLength(parcel, length, bytes.length, 4);
+        ArrayList<Integer> list = reuseList(dest, length);
+        VarInt.Reader reader = new VarInt.Reader(bytes);
+        try {
+            for (int i = 0; i < length; i++) {
+                list.add(reader.readZigZagInt());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ReadException("Malformed packed integer list", parcel);
+        }
+        parcel.setDataPosition(start + size);
+        return list;
+    }
+
+    public static ArrayList<Long> readPackedLongList(Parcel parcel, int header) {
+        return readPackedLongList(parcel, header, null);
+    }
+
+    public static ArrayList<Long> readPackedLongList(Parcel parcel, int header, ArrayList<Long> dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        int length = readPackedLength(parcel);
+        byte[] bytes = readPackedBytes(parcel, start + size);
+        checkPackedLength(parcel, length, bytes.length, 8);
+        ArrayList<Long> list = reuseList(dest, length);
+        VarInt.Reader reader = new VarInt.Reader(bytes);
+        try {
+            for (int i = 0; i < length; i++) {
+                list.add(reader.readZigZagLong());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ReadException("Malformed packed long list", parcel);
+        }
+        parcel.setDataPosition(start + size);
+        return list;
+    }
+
+    public static ArrayList<Boolean> readPackedBooleanList(Parcel parcel, int header) {
+        return readPackedBooleanList(parcel, header, null);
+    }
+
+    public static ArrayList<Boolean> readPackedBooleanList(Parcel parcel, int header, ArrayList<Boolean> dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        int length = readPackedLength(parcel);
+        byte[] bytes = readPackedBytes(parcel, start + size);
+        if (bytes.length < (length + 7L) / 8)
+            throw new ReadException("Malformed packed boolean list", parcel);
+        checkAllocation(parcel, length, (long) length * 4);
+        ArrayList<Boolean> list = reuseList(dest, length);
+        for (int i = 0; i < length; i++) {
+            list.add((bytes[i >> 3] & 1 << (i & 7)) != 0);
+        }
+        parcel.setDataPosition(start + size);
+        return list;
+    }
+
+    private static int readPackedLength(Parcel parcel) {
+        int magic = parcel.readInt();
+        if (magic != SafeParcelable.SAFE_PARCEL_PACKED_LIST_MAGIC)
+            throw new ReadException("Expected packed list. Got 0x" + Integer.toHexString(magic), parcel);
+        int length = parcel.readInt();
+        if (length < 0)
+            throw new ReadException("Invalid packed list length " + length, parcel);
+        return length;
+    }
+
+    private static byte[] readPackedBytes(Parcel parcel, int end) {
+        checkArrayLength(parcel, end, 1);
+        byte[] bytes = parcel.createByteArray();
+        if (bytes == null)
+            throw new ReadException("Packed list without data", parcel);
+        return bytes;
+    }
+
+    /**
+     * Every packed element takes at least one byte, so the element count is checked against the packed data length.
+     */
+    private static void checkPackedLength(Parcel parcel, int length, int dataLength, int elementSize) {
+        if (length > dataLength)
+            throw new LimitExceededException("Length " + length + " exceeds packed data length " + dataLength, parcel);
+        checkAllocation(parcel, length, (long) length * elementSize);
+    }
+
     public static <T extends Parcelable> T[] readParcelableArray(Parcel parcel, int header, Parcelable.Creator<T> creator) {
         int size = readSize(parcel, header);
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 4);
         T[] arr = parcel.createTypedArray(creator);
         parcel.setDataPosition(start + size);
         return arr;
@@ -256,17 +575,91 @@ public final class SafeParcelReader {
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 4);
         String[] arr = parcel.createStringArray();
         parcel.setDataPosition(start + size);
         return arr;
     }
 
+    public static String[] readStringArray(Parcel parcel, int header, StringCache cache) {
+        String[] arr = readStringArray(parcel, header);
+        if (arr != null) {
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = cache.intern(arr[i]);
+            }
+        }
+        return arr;
+    }
+
     public static byte[] readByteArray(Parcel parcel, int header) {
         int size = readSize(parcel, header);
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
-        byte[] arr = parcel.createByteArray();
+        byte[] arr;
+        if (isSpilled(parcel, start + size)) {
+            arr = readSpilled(parcel, null);
+        } else {
+            checkArrayLength(parcel, start + size, 1);
+            arr = parcel.createByteArray();
+        }
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    /**
+     * Checks whether the byte array at the current position was spilled, consuming the marker if so.
+     */
+    private static boolean isSpilled(Parcel parcel, int end) {
+        int start = parcel.dataPosition();
+        if (end - start < 8)
+            return false;
+        if (parcel.readInt() == SafeParcelFormat.SPILLED_MAGIC)
+            return true;
+        parcel.setDataPosition(start);
+        return false;
+    }
+
+    private static byte[] readSpilled(Parcel parcel, byte[] dest) {
+        int length = parcel.readInt();
+        if (length < 0)
+            throw new ReadException("Invalid length " + length, parcel);
+        SpillPolicy policy = spillPolicy;
+        if (policy == null)
+            throw new ReadException("Spilled fields are not accepted", parcel);
+        checkAllocation(parcel, length, length);
+        byte[] arr = dest != null && dest.length == length ? dest : new byte[length];
+        try {
+            InputStream in = policy.openReference(parcel, length);
+            try {
+                new DataInputStream(in).readFully(arr);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new ReadException("Can't read spilled field: " + e.getMessage(), parcel);
+        }
+        return arr;
+    }
+
+    /**
+     * Reads into {@code dest} if it has the length of the array read, otherwise into a new array.
+     */
+    public static byte[] readByteArray(Parcel parcel, int header, byte[] dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        byte[] arr;
+        if (isSpilled(parcel, start + size)) {
+            arr = readSpilled(parcel, dest);
+        } else if (dest != null && hasLength(parcel, start + size, dest.length, 1)) {
+            parcel.readByteArray(dest);
+            arr = dest;
+        } else {
+            checkArrayLength(parcel, start + size, 1);
+            arr = parcel.createByteArray();
+        }
         parcel.setDataPosition(start + size);
         return arr;
     }
@@ -277,8 +670,10 @@ public final class SafeParcelReader {
             return null;
         int start = parcel.dataPosition();
         int length = parcel.readInt();
+        checkLength(parcel, length, start + size, 4);
         byte[][] arr = new byte[length][];
         for (int i = 0; i < length; i++) {
+            checkArrayLength(parcel, start + size, 1);
             arr[i] = parcel.createByteArray();
         }
         parcel.setDataPosition(start + size);
@@ -290,21 +685,206 @@ public final class SafeParcelReader {
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 4);
         float[] arr = parcel.createFloatArray();
         parcel.setDataPosition(start + size);
         return arr;
     }
 
+    /**
+     * Reads into {@code dest} if it has the length of the array read, otherwise into a new array.
+     */
+    public static float[] readFloatArray(Parcel parcel, int header, float[] dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        float[] arr;
+        if (dest != null && hasLength(parcel, start + size, dest.length, 4)) {
+            parcel.readFloatArray(dest);
+            arr = dest;
+        } else {
+            checkArrayLength(parcel, start + size, 4);
+            arr = parcel.createFloatArray();
+        }
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
     public static int[] readIntArray(Parcel parcel, int header) {
         int size = readSize(parcel, header);
         if (size == 0)
             return null;
         int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 4);
         int[] arr = parcel.createIntArray();
         parcel.setDataPosition(start + size);
         return arr;
     }
 
+    /**
+     * Reads into {@code dest} if it has the length of the array read, otherwise into a new array.
+     */
+    public static int[] readIntArray(Parcel parcel, int header, int[] dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        int[] arr;
+        if (dest != null && hasLength(parcel, start + size, dest.length, 4)) {
+            parcel.readIntArray(dest);
+            arr = dest;
+        } else {
+            checkArrayLength(parcel, start + size, 4);
+            arr = parcel.createIntArray();
+        }
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    public static long[] readLongArray(Parcel parcel, int header) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 8);
+        long[] arr = parcel.createLongArray();
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    /**
+     * Reads into {@code dest} if it has the length of the array read, otherwise into a new array.
+     */
+    public static long[] readLongArray(Parcel parcel, int header, long[] dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        long[] arr;
+        if (dest != null && hasLength(parcel, start + size, dest.length, 8)) {
+            parcel.readLongArray(dest);
+            arr = dest;
+        } else {
+            checkArrayLength(parcel, start + size, 8);
+            arr = parcel.createLongArray();
+        }
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    public static double[] readDoubleArray(Parcel parcel, int header) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 8);
+        double[] arr = parcel.createDoubleArray();
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    /**
+     * Reads into {@code dest} if it has the length of the array read, otherwise into a new array.
+     */
+    public static double[] readDoubleArray(Parcel parcel, int header, double[] dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        double[] arr;
+        if (dest != null && hasLength(parcel, start + size, dest.length, 8)) {
+            parcel.readDoubleArray(dest);
+            arr = dest;
+        } else {
+            checkArrayLength(parcel, start + size, 8);
+            arr = parcel.createDoubleArray();
+        }
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    public static boolean[] readBooleanArray(Parcel parcel, int header) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 4);
+        boolean[] arr = parcel.createBooleanArray();
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    /**
+     * Reads into {@code dest} if it has the length of the array read, otherwise into a new array.
+     */
+    public static boolean[] readBooleanArray(Parcel parcel, int header, boolean[] dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        boolean[] arr;
+        if (dest != null && hasLength(parcel, start + size, dest.length, 4)) {
+            parcel.readBooleanArray(dest);
+            arr = dest;
+        } else {
+            checkArrayLength(parcel, start + size, 4);
+            arr = parcel.createBooleanArray();
+        }
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    public static char[] readCharArray(Parcel parcel, int header) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        checkArrayLength(parcel, start + size, 4);
+        char[] arr = parcel.createCharArray();
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    /**
+     * Reads into {@code dest} if it has the length of the array read, otherwise into a new array.
+     */
+    public static char[] readCharArray(Parcel parcel, int header, char[] dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        char[] arr;
+        if (dest != null && hasLength(parcel, start + size, dest.length, 4)) {
+            parcel.readCharArray(dest);
+            arr = dest;
+        } else {
+            checkArrayLength(parcel, start + size, 4);
+            arr = parcel.createCharArray();
+        }
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
+    public static short[] readShortArray(Parcel parcel, int header) {
+        return readShortArray(parcel, header, null);
+    }
+
+    public static short[] readShortArray(Parcel parcel, int header, short[] dest) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        int length = parcel.readInt();
+        checkLength(parcel, length, start + size, 4);
+        short[] arr = dest != null && dest.length == length ? dest : new short[length];
+        for (int i = 0; i < length; i++) {
+            arr[i] = (short) parcel.readInt();
+        }
+        parcel.setDataPosition(start + size);
+        return arr;
+    }
+
     public static Bundle readBundle(Parcel parcel, int header, ClassLoader classLoader) {
         int size = readSize(parcel, header);
         if (size == 0)
@@ -315,6 +895,16 @@ public final class SafeParcelReader {
         return bundle;
     }
 
+    public static LazyBundle readLazyBundle(Parcel parcel, int header, ClassLoader classLoader) {
+        int size = readSize(parcel, header);
+        if (size == 0)
+            return null;
+        int start = parcel.dataPosition();
+        LazyBundle bundle = LazyBundle.readFrom(parcel, size, classLoader);
+        parcel.setDataPosition(start + size);
+        return bundle;
+    }
+
     public static void skip(Parcel parcel, int header) {
         int size = readSize(parcel, header);
         parcel.setDataPosition(parcel.dataPosition() + size);
@@ -325,4 +915,22 @@ public final class SafeParcelReader {
             super(message);
         }
     }
+
+    /**
+     * Thrown when decoding would exceed the {@link DecodeLimits} in effect. Other than most {@link ReadException}s,
+     * this is not recovered from by skipping the affected field.
+     */
+    public static class LimitExceededException extends ReadException {
+        private static final long serialVersionUID = 1L;
+
+        public LimitExceededException(String message, Parcel parcel) {
+            super(message, parcel);
+        }
+    }
+
+    private static class DecodeState {
+        private DecodeLimits limits;
+        private int depth;
+        private long allocated;
+    }
 }
@@ -0,0 +1,329 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.IBinder;
+import android.os.Parcelable;
+import android.util.SparseArray;
+
+import org.microg.safeparcel.core.ContentHash;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflection metadata of a SafeParcelable class, built once per class and shared between threads.
+ * All reflective objects held here are private copies that are made accessible when the schema is built.
+ */
+final class SafeParcelSchema {
+    private static final ConcurrentHashMap<Class<?>, SafeParcelSchema> schemas = new ConcurrentHashMap<>();
+    private static final int NOT_DEFAULT = 0;
+    private static final int DEFAULT_NULL = 1;
+    private static final int DEFAULT_ZERO = 2;
+    private static final int DEFAULT_EMPTY = 3;
+
+    final Class<?> clazz;
+    final FieldInfo[] fields;
+    final SparseArray<FieldInfo> fieldsById;
+    final boolean shareReferences;
+    final boolean elideDefaults;
+    final boolean immutable;
+    private final Constructor<?> constructor;
+    private final String duplicateFieldError;
+    private volatile Object prototype;
+    private volatile int[] defaultKinds;
+    private volatile String description;
+
+    static SafeParcelSchema of(Class<?> clazz) {
+        SafeParcelSchema schema = schemas.get(clazz);
+        if (schema == null) {
+            schema = new SafeParcelSchema(clazz);
+            SafeParcelSchema previous = schemas.putIfAbsent(clazz, schema);
+            if (previous != null) schema = previous;
+        }
+        return schema;
+    }
+
+    /**
+     * @return the schema of the class if it was built already, otherwise null
+     */
+    static SafeParcelSchema cached(Class<?> clazz) {
+        return schemas.get(clazz);
+    }
+
+    private SafeParcelSchema(Class<?> clazz) {
+        this.clazz = clazz;
+        List<Field> declaredFields = new ArrayList<>();
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (SafeParcelUtil.isSafeParceledField(field)) {
+                    declaredFields.add(field);
+                }
+            }
+        }
+        // The order of getDeclaredFields() is unspecified, sorting makes the written field order deterministic
+        Collections.sort(declaredFields, new Comparator<Field>() {
+            @Override
+            public int compare(Field a, Field b) {
+                int idA = SafeParcelUtil.getFieldId(a);
+                int idB = SafeParcelUtil.getFieldId(b);
+                return idA < idB ? -1 : (idA == idB ? 0 : 1);
+            }
+        });
+        List<FieldInfo> fields = new ArrayList<>();
+        SparseArray<FieldInfo> fieldsById = new SparseArray<>();
+        String duplicateFieldError = null;
+        for (Field field : declaredFields) {
+            FieldInfo info = new FieldInfo(field, fields.size());
+            FieldInfo other = fieldsById.get(info.id);
+            if (other != null && duplicateFieldError == null) {
+                duplicateFieldError = String.format("Field number %d is used twice in %s for fields %s and %s", info.id, field.getDeclaringClass().getName(), field.getName(), other.field.getName());
+            }
+            fields.add(info);
+            fieldsById.put(info.id, info);
+        }
+        this.fields = fields.toArray(new FieldInfo[0]);
+        this.fieldsById = fieldsById;
+        this.duplicateFieldError = duplicateFieldError;
+        this.shareReferences = SafeParcelUtil.shareReferences(clazz);
+        this.elideDefaults = SafeParcelUtil.elideDefaults(clazz);
+        this.immutable = SafeParcelUtil.isImmutable(clazz);
+        Constructor<?> constructor;
+        try {
+            constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            constructor = null;
+        }
+        this.constructor = constructor;
+    }
+
+    /**
+     * @return one line per field with its id, type and the flags that affect its encoding, ordered by id.
+     */
+    String description() {
+        String description = this.description;
+        if (description == null) {
+            StringBuilder sb = new StringBuilder();
+            for (FieldInfo info : fields) {
+                sb.append(info.id).append(' ').append(info.type == null ? "Unsupported" : info.type.name());
+                if (info.mayNull) sb.append(" mayNull");
+                if (info.valueList) sb.append(" valueList");
+                if (info.adapter != null) sb.append(' ').append(info.field.getType().getName());
+                sb.append('\n');
+            }
+            description = sb.toString();
+            this.description = description;
+        }
+        return description;
+    }
+
+    long fingerprint() {
+        return ContentHash.of(description().getBytes(Charset.forName("UTF-8")));
+    }
+
+    Object newInstance() throws NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException {
+        if (constructor == null)
+            throw new NoSuchMethodException(clazz.getName() + ".<init>()");
+        return constructor.newInstance();
+    }
+
+    /**
+     * @return a shared instance created by the default constructor, holding the default value of every field.
+     * Must not be modified or handed out.
+     */
+    Object prototype() throws NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException {
+        Object prototype = this.prototype;
+        if (prototype == null) {
+            prototype = newInstance();
+            this.prototype = prototype;
+        }
+        return prototype;
+    }
+
+    /**
+     * @return true if the value is zero, false, null or empty and the field has a value of the same kind in the
+     * prototype, so that a reader gets an equal value when the field is not written.
+     */
+    boolean isDefault(FieldInfo field, Object value) {
+        int kind = defaultKind(value);
+        if (kind == NOT_DEFAULT)
+            return false;
+        int[] defaultKinds = this.defaultKinds;
+        if (defaultKinds == null) {
+            defaultKinds = new int[fields.length];
+            try {
+                Object prototype = prototype();
+                for (FieldInfo info : fields) {
+                    defaultKinds[info.index] = defaultKind(info.field.get(prototype));
+                }
+            } catch (Exception e) {
+                Arrays.fill(defaultKinds, NOT_DEFAULT);
+            }
+            this.defaultKinds = defaultKinds;
+        }
+        return defaultKinds[field.index] == kind;
+    }
+
+    private static int defaultKind(Object value) {
+        if (value == null)
+            return DEFAULT_NULL;
+        if (value instanceof Number) {
+            if (value instanceof Float || value instanceof Double) {
+                // -0.0 and NaN are not defaults
+                long bits = Double.doubleToRawLongBits(((Number) value).doubleValue());
+                return bits == 0 ? DEFAULT_ZERO : NOT_DEFAULT;
+            }
+            return ((Number) value).longValue() == 0 ? DEFAULT_ZERO : NOT_DEFAULT;
+        }
+        if (value instanceof Boolean)
+            return ((Boolean) value) ? NOT_DEFAULT : DEFAULT_ZERO;
+        if (value instanceof Character)
+            return ((Character) value) == 0 ? DEFAULT_ZERO : NOT_DEFAULT;
+        if (value instanceof Collection)
+            return ((Collection) value).isEmpty() ? DEFAULT_EMPTY : NOT_DEFAULT;
+        if (value instanceof Map)
+            return ((Map) value).isEmpty() ? DEFAULT_EMPTY : NOT_DEFAULT;
+        if (value.getClass().isArray())
+            return Array.getLength(value) == 0 ? DEFAULT_EMPTY : NOT_DEFAULT;
+        return NOT_DEFAULT;
+    }
+
+    void checkFieldIds() {
+        if (duplicateFieldError != null)
+            throw new RuntimeException(duplicateFieldError);
+    }
+
+    static final class FieldInfo {
+        final Field field;
+        /**
+         * Position of this field in {@link SafeParcelSchema#fields}, which are ordered by id.
+         */
+        final int index;
+        final int id;
+        final boolean mayNull;
+        final long versionCode;
+        final boolean elideDefault;
+        final SafeParcelUtil.SafeParcelType type;
+        final boolean valueContainer;
+        final boolean valueList;
+        final ClassLoader classLoader;
+        final StringCache stringCache;
+        final Method asInterface;
+        final TypeAdapter<Object> adapter;
+        /**
+         * Class of the SafeParcelables read through this field, if any.
+         */
+        final Class<?> parcelableClass;
+        private final RuntimeException typeError;
+        private volatile Parcelable.Creator<Parcelable> creator;
+
+        @SuppressWarnings("unchecked")
+        private FieldInfo(Field field, int index) {
+            field.setAccessible(true);
+            this.field = field;
+            this.index = index;
+            this.id = SafeParcelUtil.getFieldId(field);
+            this.mayNull = SafeParcelUtil.getMayNull(field);
+            SafeParcelable.Field annotation = field.getAnnotation(SafeParcelable.Field.class);
+            this.versionCode = annotation != null ? annotation.versionCode() : -1;
+            this.elideDefault = annotation != null && annotation.elideDefault();
+            this.stringCache = SafeParcelUtil.getStringCache(field);
+            SafeParcelUtil.SafeParcelType type = null;
+            RuntimeException typeError = null;
+            boolean valueList = false;
+            ClassLoader classLoader = null;
+            Method asInterface = null;
+            TypeAdapter<Object> adapter = null;
+            Class<?> parcelableClass = null;
+            try {
+                type = SafeParcelUtil.SafeParcelType.fromField(field);
+                switch (type) {
+                    case Parcelable:
+                        parcelableClass = field.getType();
+                        break;
+                    case ParcelableArray:
+                        parcelableClass = field.getType().getComponentType();
+                        break;
+                    case List: {
+                        Class<?> itemClass = SafeParcelUtil.getListItemClass(field);
+                        valueList = SafeParcelUtil.isValueList(field);
+                        if (valueList) {
+                            classLoader = SafeParcelUtil.getClassLoader(itemClass);
+                        } else {
+                            parcelableClass = itemClass;
+                        }
+                        break;
+                    }
+                    case Map:
+                        classLoader = SafeParcelUtil.getClassLoader(SafeParcelUtil.getSubClass(field));
+                        break;
+                    case Bundle:
+                    case LazyBundle: {
+                        Class<?> subClass = SafeParcelUtil.getSubClass(field);
+                        if (subClass == null || !Parcelable.class.isAssignableFrom(subClass) || SafeParcelUtil.useValueParcel(field) /* should not happen on Bundles */) {
+                            classLoader = SafeParcelUtil.getClassLoader(field.getDeclaringClass());
+                        } else {
+                            classLoader = SafeParcelUtil.getClassLoader(subClass);
+                        }
+                        break;
+                    }
+                    case Interface:
+                        for (Class<?> aClass : field.getType().getDeclaredClasses()) {
+                            try {
+                                asInterface = aClass.getDeclaredMethod("asInterface", IBinder.class);
+                                asInterface.setAccessible(true);
+                                break;
+                            } catch (NoSuchMethodException ignored) {
+                            }
+                        }
+                        break;
+                    case Adapted:
+                        adapter = (TypeAdapter<Object>) TypeAdapters.get(field.getType());
+                        break;
+                }
+            } catch (RuntimeException e) {
+                typeError = e;
+            }
+            this.type = type;
+            this.typeError = typeError;
+            this.valueList = valueList;
+            this.valueContainer = type == SafeParcelUtil.SafeParcelType.Bundle || type == SafeParcelUtil.SafeParcelType.LazyBundle || type == SafeParcelUtil.SafeParcelType.Map || valueList;
+            this.classLoader = classLoader;
+            this.asInterface = asInterface;
+            this.adapter = adapter;
+            this.parcelableClass = parcelableClass;
+        }
+
+        SafeParcelUtil.SafeParcelType getType() {
+            if (type == null) throw typeError;
+            return type;
+        }
+
+        Parcelable.Creator<Parcelable> getCreator() {
+            Parcelable.Creator<Parcelable> creator = this.creator;
+            if (creator == null) {
+                if (parcelableClass == null || !Parcelable.class.isAssignableFrom(parcelableClass))
+                    throw new RuntimeException(parcelableClass + " is not an Parcelable");
+                creator = SafeParcelUtil.getCreator(parcelableClass);
+                this.creator = creator;
+            }
+            return creator;
+        }
+    }
+}
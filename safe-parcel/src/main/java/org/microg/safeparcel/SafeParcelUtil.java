@@ -11,111 +11,515 @@ import android.os.IInterface;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
-import android.util.SparseArray;
 
-import java.lang.reflect.Constructor;
+import org.microg.safeparcel.core.ContentHash;
+
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Reflection-based writing and reading of {@link SafeParcelable}s.
+ * <p>
+ * All methods may be called concurrently from any number of threads, also for the same classes. Per-class metadata is
+ * built once and shared without locking, reflective objects are made accessible when the metadata is built and are not
+ * modified afterwards, and state that spans nested objects, such as shared references and decode limits, is kept per
+ * thread. Objects passed in must not be modified by other threads while they are written or read.
+ */
 public final class SafeParcelUtil {
     private static final String TAG = "SafeParcel";
 
     private SafeParcelUtil() {
     }
 
+    private static final ThreadLocal<IdentityHashMap<Object, Integer>> writtenReferences = new ThreadLocal<>();
+    private static final ThreadLocal<ArrayList<Object>> readReferences = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> canonicalWrite = new ThreadLocal<>();
+    private static final ThreadLocal<IdentityHashMap<Object, Boolean>> reusedValues = new ThreadLocal<>();
+    private static final EncodingCache encodingCache = new EncodingCache();
+
     public static <T extends SafeParcelable> T createObject(Class<T> tClass, Parcel in) {
+        return createObject(tClass, in, null);
+    }
+
+    /**
+     * @param instance if not null, an instance of {@code tClass} that is read into instead of creating a new one.
+     *                 Not used if the parcel holds a reference to an object read before.
+     */
+    static <T extends SafeParcelable> T createObject(Class<T> tClass, Parcel in, T instance) {
+        ArrayList<Object> references = readReferences.get();
+        if (references != null) {
+            int index = SafeParcelReader.readObjectReference(in);
+            if (index >= 0) {
+                if (index >= references.size())
+                    throw new SafeParcelReader.ReadException("Unknown object reference " + index, in);
+                return tClass.cast(references.get(index));
+            }
+        }
+        if (instance != null) {
+            readObject(instance, in, true);
+            return instance;
+        }
         try {
-            Constructor<T> constructor = tClass.getDeclaredConstructor();
-            boolean acc = constructor.isAccessible();
-            constructor.setAccessible(true);
-            T t = constructor.newInstance();
+            T t = tClass.cast(SafeParcelSchema.of(tClass).newInstance());
             readObject(t, in);
-            constructor.setAccessible(acc);
             return t;
         } catch (NoSuchMethodException e) {
             throw new RuntimeException("createObject() requires a default constructor");
+        } catch (SafeParcelReader.LimitExceededException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Can't construct object", e);
         }
     }
 
+    /**
+     * Builds the reflection metadata and resolves the creators of the given classes and all SafeParcelables
+     * reachable through their fields on a background thread, so that the first objects written or read
+     * don't have to do so on the calling thread. All calls share a single background thread, which ends when idle.
+     */
+    @SafeVarargs
+    public static void preload(Class<? extends SafeParcelable>... classes) {
+        preload(PreloadExecutor.INSTANCE, classes);
+    }
+
+    /**
+     * Like {@link #preload(Class[])}, but runs on the given executor.
+     */
+    @SafeVarargs
+    public static void preload(Executor executor, final Class<? extends SafeParcelable>... classes) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Set<Class<?>> done = new HashSet<>();
+                for (Class<? extends SafeParcelable> clazz : classes) {
+                    preload(clazz, done);
+                }
+            }
+        });
+    }
+
+    private static final class PreloadExecutor {
+        static final Executor INSTANCE = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SafeParcelPreload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static void preload(Class<?> clazz, Set<Class<?>> done) {
+        if (!done.add(clazz)) return;
+        try {
+            SafeParcelSchema schema = SafeParcelSchema.of(clazz);
+            getCreator(clazz);
+            for (SafeParcelSchema.FieldInfo field : schema.fields) {
+                if (field.parcelableClass != null && SafeParcelable.class.isAssignableFrom(field.parcelableClass)) {
+                    field.getCreator();
+                    preload(field.parcelableClass, done);
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to preload " + clazz, e);
+        }
+    }
+
     public static void writeObject(SafeParcelable object, Parcel parcel, int flags) {
+        writeObject(object, parcel, flags, null);
+    }
+
+    /**
+     * Writes the object in canonical form, so that equal objects are written to equal bytes. Byte arrays are always
+     * written inline.
+     * <p>
+     * Fields are always written ordered by their id. In canonical form, the entries of {@link Map} fields, also those of
+     * nested objects, are additionally ordered by key. Keys of the same class are compared by their natural order if
+     * they are {@link Comparable} and by {@link Object#toString()} otherwise.
+     */
+    public static void writeCanonical(SafeParcelable object, Parcel parcel, int flags) {
+        if (canonicalWrite.get() != null) {
+            writeObject(object, parcel, flags);
+            return;
+        }
+        canonicalWrite.set(Boolean.TRUE);
+        SpillPolicy spillPolicy = SafeParcelWriter.enterInline();
+        try {
+            writeObject(object, parcel, flags);
+        } finally {
+            SafeParcelWriter.restoreSpillPolicy(spillPolicy);
+            canonicalWrite.remove();
+        }
+    }
+
+    /**
+     * @return a hash of the canonical form of the object, see {@link #writeCanonical(SafeParcelable, Parcel, int)}
+     * and {@link ContentHash}
+     */
+    public static long contentHash(SafeParcelable object) {
+        Parcel parcel = ParcelFactory.obtainParcel();
+        try {
+            writeCanonical(object, parcel, 0);
+            return ContentHash.of(parcel.marshall());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static final Comparator<Map.Entry<?, ?>> CANONICAL_KEY_ORDER = new Comparator<Map.Entry<?, ?>>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Map.Entry<?, ?> a, Map.Entry<?, ?> b) {
+            Object keyA = a.getKey();
+            Object keyB = b.getKey();
+            if (keyA == keyB) return 0;
+            if (keyA == null) return -1;
+            if (keyB == null) return 1;
+            if (keyA.getClass() != keyB.getClass())
+                return keyA.getClass().getName().compareTo(keyB.getClass().getName());
+            if (keyA instanceof Comparable)
+                return ((Comparable<Object>) keyA).compareTo(keyB);
+            return keyA.toString().compareTo(keyB.toString());
+        }
+    };
+
+    private static Map<?, ?> canonicalMap(Map<?, ?> map) {
+        if (map == null || map.size() < 2 || canonicalWrite.get() == null)
+            return map;
+        List<Map.Entry<?, ?>> entries = new ArrayList<Map.Entry<?, ?>>(map.entrySet());
+        Collections.sort(entries, CANONICAL_KEY_ORDER);
+        Map<Object, Object> sorted = new LinkedHashMap<>(entries.size() * 2);
+        for (Map.Entry<?, ?> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return sorted;
+    }
+
+    /**
+     * @param mask if not null, only fields with an id in the mask are written
+     */
+    public static void writeObject(SafeParcelable object, Parcel parcel, int flags, FieldMask mask) {
         if (object == null)
             throw new NullPointerException();
-        Class clazz = object.getClass();
+        SafeParcelSchema schema = SafeParcelSchema.of(object.getClass());
+        IdentityHashMap<Object, Integer> references = writtenReferences.get();
+        boolean ownsReferences = false;
+        if (references != null) {
+            Integer index = references.get(object);
+            if (index != null) {
+                SafeParcelWriter.writeObjectReference(parcel, index);
+                return;
+            }
+            references.put(object, references.size());
+        }
+        // The encoded form only depends on the object and flags unless it is part of a reference scope or written
+        // with a field mask, in canonical form or with spilled fields. Cached objects are written inline, as the file
+        // descriptors of spilled fields can't be shared by several parcels.
+        boolean cached = schema.immutable && references == null && mask == null && canonicalWrite.get() == null
+                && !SafeParcelWriter.isSpilling();
+        if (cached && encodingCache.append(object, flags, parcel))
+            return;
+        SpillPolicy spillPolicy = cached ? SafeParcelWriter.enterInline() : null;
+        if (references == null && schema.shareReferences) {
+            references = new IdentityHashMap<>();
+            references.put(object, 0);
+            writtenReferences.set(references);
+            ownsReferences = true;
+        }
         int start = SafeParcelWriter.writeObjectHeader(parcel);
-        while (clazz != null) {
-            for (Field field : clazz.getDeclaredFields()) {
-                if (isSafeParceledField(field)) {
-                    try {
-                        writeField(object, parcel, field, flags);
-                    } catch (Exception e) {
-                        Log.w(TAG, "Error writing field: " + e);
-                    }
+        try {
+            if (ownsReferences) {
+                SafeParcelWriter.writeSharedReferencesMarker(parcel);
+            }
+            for (SafeParcelSchema.FieldInfo field : schema.fields) {
+                try {
+                    if (mask != null && !mask.contains(field.id))
+                        continue;
+                    if ((schema.elideDefaults || field.elideDefault) && schema.isDefault(field, field.field.get(object)))
+                        continue;
+                    writeField(object, parcel, field, flags);
+                } catch (Exception e) {
+                    Log.w(TAG, "Error writing field: " + e);
                 }
             }
-            clazz = clazz.getSuperclass();
+        } finally {
+            if (ownsReferences) {
+                writtenReferences.remove();
+            }
+            if (cached) {
+                SafeParcelWriter.restoreSpillPolicy(spillPolicy);
+            }
         }
         SafeParcelWriter.finishObjectHeader(parcel, start);
+        if (cached) {
+            int headerStart = start - 8;
+            encodingCache.put(object, flags, parcel, headerStart, parcel.dataPosition() - headerStart);
+        }
     }
 
     public static void readObject(SafeParcelable object, Parcel parcel) {
+        readObject(object, parcel, false);
+    }
+
+    /**
+     * Reads into an existing instance, reusing its lists, primitive arrays and nested {@link AutoSafeParcelable}s where
+     * possible instead of allocating new ones. Fields not present in the parcel are reset to the value they have after
+     * the default constructor, so the result equals that of {@link #readObject(SafeParcelable, Parcel)} on a new
+     * instance.
+     * <p>
+     * Arrays are only reused if their length matches. Nested objects are not reused while reading shared references.
+     * Values referenced by more than one field are only reused for the first of them, the others get new values.
+     *
+     * @throws RuntimeException if the class has no default constructor, before anything is read
+     */
+    public static void readObjectReusing(SafeParcelable object, Parcel parcel) {
+        readObject(object, parcel, true);
+    }
+
+    private static void readObject(SafeParcelable object, Parcel parcel, boolean reuse) {
         if (object == null)
             throw new NullPointerException();
-        Class clazz = object.getClass();
-        SparseArray<Field> fieldMap = new SparseArray<>();
-        while (clazz != null) {
-            for (Field field : clazz.getDeclaredFields()) {
-                if (isSafeParceledField(field)) {
-                    int fieldId = getFieldId(field);
-                    if (fieldMap.get(fieldId) != null) {
-                        throw new RuntimeException(String.format("Field number %d is used twice in %s for fields %s and %s", fieldId, clazz.getName(), field.getName(), fieldMap.get(fieldId).getName()));
-                    }
-                    fieldMap.put(fieldId, field);
-                }
+        SafeParcelSchema schema = SafeParcelSchema.of(object.getClass());
+        schema.checkFieldIds();
+        if (reuse) {
+            // Without the prototype, fields missing in the parcel would keep their previous values
+            try {
+                schema.prototype();
+            } catch (Exception e) {
+                throw new RuntimeException("readObjectReusing() requires a default constructor", e);
+            }
+        }
+        long seen = 0;
+        boolean[] seenMore = reuse && schema.fields.length > 64 ? new boolean[schema.fields.length] : null;
+        ArrayList<Object> references = readReferences.get();
+        boolean ownsReferences = false;
+        if (references != null) {
+            references.add(object);
+        }
+        IdentityHashMap<Object, Boolean> reused = null;
+        boolean ownsReused = false;
+        if (reuse) {
+            reused = reusedValues.get();
+            if (reused == null) {
+                reused = new IdentityHashMap<>();
+                reusedValues.set(reused);
+                ownsReused = true;
             }
-            clazz = clazz.getSuperclass();
+            reused.put(object, Boolean.TRUE);
         }
-        clazz = object.getClass();
         int end = SafeParcelReader.readObjectHeader(parcel);
-        while (parcel.dataPosition() < end) {
-            int header = SafeParcelReader.readHeader(parcel);
-            int fieldId = SafeParcelReader.getFieldId(header);
-            Field field = fieldMap.get(fieldId);
-            if (field == null) {
-                Log.d(TAG, String.format("Unknown field id %d in %s, skipping.", fieldId, clazz.getName()));
-                SafeParcelReader.skip(parcel, header);
-            } else {
-                try {
-                    readField(object, parcel, field, header);
-                } catch (Exception e) {
-                    Log.w(TAG, String.format("Error reading field: %d in %s, skipping.", fieldId, clazz.getName()), e);
+        SafeParcelReader.enterObject(parcel);
+        // Writers with the same schema write fields ordered by id, so the next field is tried before looking it up
+        int next = 0;
+        try {
+            while (parcel.dataPosition() < end) {
+                int header = SafeParcelReader.readHeader(parcel);
+                int fieldId = SafeParcelReader.getFieldId(header);
+                SafeParcelSchema.FieldInfo field;
+                if (next < schema.fields.length && schema.fields[next].id == fieldId) {
+                    field = schema.fields[next++];
+                } else {
+                    field = schema.fieldsById.get(fieldId);
+                    if (field != null) next = field.index + 1;
+                }
+                if (fieldId == SafeParcelable.SAFE_PARCEL_SHARED_REFERENCES_FIELD && field == null) {
+                    // Classes that don't share references may rely on their fields forming a tree
+                    if (references == null && !schema.shareReferences)
+                        throw new SafeParcelReader.ReadException("Shared references in " + schema.clazz.getName(), parcel);
+                    if (references == null) {
+                        references = new ArrayList<>();
+                        references.add(object);
+                        readReferences.set(references);
+                        ownsReferences = true;
+                    }
                     SafeParcelReader.skip(parcel, header);
+                } else if (field == null) {
+                    Log.d(TAG, String.format("Unknown field id %d in %s, skipping.", fieldId, schema.clazz.getName()));
+                    SafeParcelReader.skip(parcel, header);
+                } else {
+                    int fieldStart = parcel.dataPosition();
+                    try {
+                        readField(object, parcel, field, header, reuse);
+                        if (field.index < 64) {
+                            seen |= 1L << field.index;
+                        } else if (seenMore != null) {
+                            seenMore[field.index] = true;
+                        }
+                    } catch (SafeParcelReader.LimitExceededException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        // Objects in a skipped field would be missing from the references, shifting all later ones
+                        if (references != null)
+                            throw new SafeParcelReader.ReadException(String.format("Error reading field: %d in %s: %s", fieldId, schema.clazz.getName(), e), parcel);
+                        Log.w(TAG, String.format("Error reading field: %d in %s, skipping.", fieldId, schema.clazz.getName()), e);
+                        parcel.setDataPosition(fieldStart);
+                        SafeParcelReader.skip(parcel, header);
+                    }
                 }
             }
+        } finally {
+            SafeParcelReader.exitObject();
+            if (ownsReferences) {
+                readReferences.remove();
+            }
+            if (ownsReused) {
+                reusedValues.remove();
+            }
         }
         if (parcel.dataPosition() > end) {
             throw new RuntimeException("Overread allowed size end=" + end);
         }
+        if (reuse) {
+            resetUnseenFields(object, schema, seen, seenMore);
+        }
     }
 
-    private static Parcelable.Creator<Parcelable> getCreator(Field field) {
-        Class clazz = field.getType();
-        if (clazz.isArray()) {
-            clazz = clazz.getComponentType();
+    private static void resetUnseenFields(SafeParcelable object, SafeParcelSchema schema, long seen, boolean[] seenMore) {
+        IdentityHashMap<Object, Object> copies = null;
+        for (SafeParcelSchema.FieldInfo field : schema.fields) {
+            if (field.index < 64 ? (seen & 1L << field.index) != 0 : seenMore[field.index])
+                continue;
+            try {
+                if (copies == null) copies = new IdentityHashMap<>();
+                field.field.set(object, copyValue(field, field.field.get(schema.prototype()), copies));
+            } catch (Exception e) {
+                Log.w(TAG, String.format("Can't reset field %s in %s", field.field.getName(), schema.clazz.getName()), e);
+            }
         }
-        if (clazz != null && Parcelable.class.isAssignableFrom(clazz)) {
-            return getCreator(clazz);
+    }
+
+    /**
+     * Creates a deep copy of the given object without going through a {@link Parcel}.
+     * <p>
+     * All fields that would be parceled are copied: arrays and lists are cloned, nested {@link AutoSafeParcelable}s are
+     * copied recursively (keeping shared references and cycles intact) and bundles and maps are copied shallowly.
+     * Immutable values, binders, interfaces and other Parcelables are shared with the original.
+     */
+    public static <T extends AutoSafeParcelable> T copy(T object) {
+        if (object == null)
+            return null;
+        return copyObject(object, new IdentityHashMap<Object, Object>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T copyObject(T object, IdentityHashMap<Object, Object> copies) {
+        Object copy = copies.get(object);
+        if (copy != null)
+            return (T) copy;
+        SafeParcelSchema schema = SafeParcelSchema.of(object.getClass());
+        try {
+            copy = schema.newInstance();
+            copies.put(object, copy);
+            for (SafeParcelSchema.FieldInfo field : schema.fields) {
+                field.field.set(copy, copyValue(field, field.field.get(object), copies));
+            }
+            return (T) copy;
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException("copy() requires a default constructor");
+        } catch (Exception e) {
+            throw new RuntimeException("Can't copy object", e);
         }
-        throw new RuntimeException(clazz + " is not an Parcelable");
     }
 
-    private static Parcelable.Creator<Parcelable> getCreator(Class clazz) {
+    private static Object copyValue(SafeParcelSchema.FieldInfo info, Object value, IdentityHashMap<Object, Object> copies) {
+        if (value == null)
+            return null;
+        switch (info.getType()) {
+            case Parcelable:
+                return copyElement(value, copies);
+            case ParcelableArray: {
+                Object[] array = ((Object[]) value).clone();
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = copyElement(array[i], copies);
+                }
+                return array;
+            }
+            case List: {
+                List<?> list = (List<?>) value;
+                ArrayList<Object> copy = new ArrayList<>(list.size());
+                for (Object element : list) {
+                    copy.add(copyElement(element, copies));
+                }
+                return copy;
+            }
+            case StringList:
+            case IntegerList:
+            case BooleanList:
+            case LongList:
+            case FloatList:
+            case DoubleList:
+            case PackedIntegerList:
+            case PackedLongList:
+            case PackedBooleanList:
+                return new ArrayList<>((List<?>) value);
+            case Map:
+                return new HashMap<>((Map<?, ?>) value);
+            case Bundle:
+                return new Bundle((Bundle) value);
+            case LazyBundle:
+                return ((LazyBundle) value).copy();
+            case IntListView:
+                return new PrimitiveLists.IntList(((PrimitiveLists.IntList) value).array().clone());
+            case LongListView:
+                return new PrimitiveLists.LongList(((PrimitiveLists.LongList) value).array().clone());
+            case FloatListView:
+                return new PrimitiveLists.FloatList(((PrimitiveLists.FloatList) value).array().clone());
+            case DoubleListView:
+                return new PrimitiveLists.DoubleList(((PrimitiveLists.DoubleList) value).array().clone());
+            case ByteArrayArray: {
+                byte[][] array = ((byte[][]) value).clone();
+                for (int i = 0; i < array.length; i++) {
+                    if (array[i] != null) array[i] = array[i].clone();
+                }
+                return array;
+            }
+            case StringArray:
+            case ByteArray:
+            case FloatArray:
+            case IntArray:
+            case LongArray:
+            case DoubleArray:
+            case BooleanArray:
+            case ShortArray:
+            case CharArray: {
+                int length = Array.getLength(value);
+                Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+                System.arraycopy(value, 0, copy, 0, length);
+                return copy;
+            }
+            case Adapted:
+                return info.adapter.copy(value);
+            default:
+                return value;
+        }
+    }
+
+    private static Object copyElement(Object value, IdentityHashMap<Object, Object> copies) {
+        if (value instanceof AutoSafeParcelable)
+            return copyObject(value, copies);
+        return value;
+    }
+
+    static Parcelable.Creator<Parcelable> getCreator(Class<?> clazz) {
         try {
             Field creatorField = clazz.getDeclaredField("CREATOR");
             creatorField.setAccessible(true);
@@ -128,7 +532,7 @@ public final class SafeParcelUtil {
     }
 
     @SuppressWarnings("deprecation")
-    private static Class getSubClass(Field field) {
+    static Class<?> getSubClass(Field field) {
         SafeParceled safeParceled = field.getAnnotation(SafeParceled.class);
         SafeParcelable.Field safeParcelableField = field.getAnnotation(SafeParcelable.Field.class);
         if (safeParceled != null && safeParceled.subClass() != SafeParceled.class) {
@@ -147,26 +551,26 @@ public final class SafeParcelUtil {
     }
 
     @SuppressWarnings("deprecation")
-    private static Class getListItemClass(Field field) {
-        Class subClass = getSubClass(field);
+    static Class<?> getListItemClass(Field field) {
+        Class<?> subClass = getSubClass(field);
         if (subClass != null || field.isAnnotationPresent(SafeParceled.class)) return subClass;
         Type type = field.getGenericType();
         if (type instanceof ParameterizedType) {
             ParameterizedType pt = (ParameterizedType) type;
             if (pt.getActualTypeArguments().length >= 1) {
                 Type t = pt.getActualTypeArguments()[0];
-                if (t instanceof Class) return (Class) t;
+                if (t instanceof Class) return (Class<?>) t;
             }
         }
         return null;
     }
 
-    private static ClassLoader getClassLoader(Class clazz) {
+    static ClassLoader getClassLoader(Class<?> clazz) {
         return clazz == null || clazz.getClassLoader() == null ? ClassLoader.getSystemClassLoader() : clazz.getClassLoader();
     }
 
     @SuppressWarnings("deprecation")
-    private static boolean useValueParcel(Field field) {
+    static boolean useValueParcel(Field field) {
         SafeParceled safeParceled = field.getAnnotation(SafeParceled.class);
         SafeParcelable.Field safeParcelableField = field.getAnnotation(SafeParcelable.Field.class);
         if (safeParceled != null) {
@@ -179,7 +583,7 @@ public final class SafeParcelUtil {
     }
 
     @SuppressWarnings("deprecation")
-    private static int getFieldId(Field field) {
+    static int getFieldId(Field field) {
         SafeParceled safeParceled = field.getAnnotation(SafeParceled.class);
         SafeParcelable.Field safeParcelableField = field.getAnnotation(SafeParcelable.Field.class);
         if (safeParceled != null) {
@@ -192,7 +596,7 @@ public final class SafeParcelUtil {
     }
 
     @SuppressWarnings("deprecation")
-    private static boolean getMayNull(Field field) {
+    static boolean getMayNull(Field field) {
         SafeParceled safeParceled = field.getAnnotation(SafeParceled.class);
         SafeParcelable.Field safeParcelableField = field.getAnnotation(SafeParcelable.Field.class);
         if (safeParceled != null) {
@@ -205,7 +609,7 @@ public final class SafeParcelUtil {
     }
 
     @SuppressWarnings("deprecation")
-    private static boolean isSafeParceledField(Field field) {
+    static boolean isSafeParceledField(Field field) {
         return field.isAnnotationPresent(SafeParceled.class) || field.isAnnotationPresent(SafeParcelable.Field.class);
     }
 
@@ -215,13 +619,60 @@ public final class SafeParcelUtil {
         return false;
     }
 
-    private static void writeField(SafeParcelable object, Parcel parcel, Field field, int flags)
+    static boolean shareReferences(Class<?> clazz) {
+        SafeParcelable.Options options = clazz.getAnnotation(SafeParcelable.Options.class);
+        return options != null && options.shareReferences();
+    }
+
+    static boolean elideDefaults(Class<?> clazz) {
+        SafeParcelable.Options options = clazz.getAnnotation(SafeParcelable.Options.class);
+        return options != null && options.elideDefaults();
+    }
+
+    static boolean isImmutable(Class<?> clazz) {
+        SafeParcelable.Options options = clazz.getAnnotation(SafeParcelable.Options.class);
+        return options != null && options.immutable();
+    }
+
+    static boolean isValueList(Field field) {
+        Class<?> clazz = getListItemClass(field);
+        return clazz == null || !Parcelable.class.isAssignableFrom(clazz) || useValueParcel(field);
+    }
+
+    private static boolean usePackedList(Field field) {
+        SafeParcelable.Field safeParcelableField = field.getAnnotation(SafeParcelable.Field.class);
+        if (safeParcelableField != null) return safeParcelableField.usePackedList();
+        return false;
+    }
+
+    static StringCache getStringCache(Field field) {
+        SafeParcelable.Field safeParcelableField = field.getAnnotation(SafeParcelable.Field.class);
+        if (safeParcelableField != null && safeParcelableField.internStrings()) return StringCache.getDefault();
+        return null;
+    }
+
+    private static void writeField(SafeParcelable object, Parcel parcel, SafeParcelSchema.FieldInfo info, int flags)
             throws IllegalAccessException {
-        int fieldId = getFieldId(field);
-        boolean mayNull = getMayNull(field);
-        boolean acc = field.isAccessible();
-        field.setAccessible(true);
-        switch (SafeParcelType.fromField(field)) {
+        SafeParcelType type = info.getType();
+        IdentityHashMap<Object, Integer> references = writtenReferences.get();
+        if (references != null && info.valueContainer) {
+            // Objects in values may be unparcelled lazily or not at all, so they can't take part in shared references
+            writtenReferences.remove();
+        }
+        try {
+            writeFieldValue(object, parcel, info, type, info.id, info.mayNull, flags);
+        } finally {
+            if (references != null) {
+                writtenReferences.set(references);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeFieldValue(SafeParcelable object, Parcel parcel, SafeParcelSchema.FieldInfo info, SafeParcelType type, int fieldId, boolean mayNull, int flags)
+            throws IllegalAccessException {
+        Field field = info.field;
+        switch (type) {
             case Parcelable:
                 SafeParcelWriter.write(parcel, fieldId, (Parcelable) field.get(object), flags, mayNull);
                 break;
@@ -249,9 +700,37 @@ public final class SafeParcelUtil {
             case DoubleList:
                 SafeParcelWriter.writeDoubleList(parcel, fieldId, ((List<Double>) field.get(object)), mayNull);
                 break;
+            case IntListView: {
+                PrimitiveLists.IntList list = (PrimitiveLists.IntList) field.get(object);
+                SafeParcelWriter.write(parcel, fieldId, list == null ? null : list.array(), mayNull);
+                break;
+            }
+            case LongListView: {
+                PrimitiveLists.LongList list = (PrimitiveLists.LongList) field.get(object);
+                SafeParcelWriter.write(parcel, fieldId, list == null ? null : list.array(), mayNull);
+                break;
+            }
+            case FloatListView: {
+                PrimitiveLists.FloatList list = (PrimitiveLists.FloatList) field.get(object);
+                SafeParcelWriter.write(parcel, fieldId, list == null ? null : list.array(), mayNull);
+                break;
+            }
+            case DoubleListView: {
+                PrimitiveLists.DoubleList list = (PrimitiveLists.DoubleList) field.get(object);
+                SafeParcelWriter.write(parcel, fieldId, list == null ? null : list.array(), mayNull);
+                break;
+            }
+            case PackedIntegerList:
+                SafeParcelWriter.writePackedIntegerList(parcel, fieldId, ((List<Integer>) field.get(object)), mayNull);
+                break;
+            case PackedLongList:
+                SafeParcelWriter.writePackedLongList(parcel, fieldId, ((List<Long>) field.get(object)), mayNull);
+                break;
+            case PackedBooleanList:
+                SafeParcelWriter.writePackedBooleanList(parcel, fieldId, ((List<Boolean>) field.get(object)), mayNull);
+                break;
             case List: {
-                Class clazz = getListItemClass(field);
-                if (clazz == null || !Parcelable.class.isAssignableFrom(clazz) || useValueParcel(field)) {
+                if (info.valueList) {
                     SafeParcelWriter.write(parcel, fieldId, (List) field.get(object), mayNull);
                 } else {
                     SafeParcelWriter.write(parcel, fieldId, (List) field.get(object), flags, mayNull);
@@ -259,11 +738,14 @@ public final class SafeParcelUtil {
                 break;
             }
             case Map:
-                SafeParcelWriter.write(parcel, fieldId, (Map) field.get(object), mayNull);
+                SafeParcelWriter.write(parcel, fieldId, canonicalMap((Map<?, ?>) field.get(object)), mayNull);
                 break;
             case Bundle:
                 SafeParcelWriter.write(parcel, fieldId, (Bundle) field.get(object), mayNull);
                 break;
+            case LazyBundle:
+                SafeParcelWriter.write(parcel, fieldId, (LazyBundle) field.get(object), mayNull);
+                break;
             case ParcelableArray:
                 SafeParcelWriter.write(parcel, fieldId, (Parcelable[]) field.get(object), flags, mayNull);
                 break;
@@ -282,6 +764,21 @@ public final class SafeParcelUtil {
             case IntArray:
                 SafeParcelWriter.write(parcel, fieldId, (int[]) field.get(object), mayNull);
                 break;
+            case LongArray:
+                SafeParcelWriter.write(parcel, fieldId, (long[]) field.get(object), mayNull);
+                break;
+            case DoubleArray:
+                SafeParcelWriter.write(parcel, fieldId, (double[]) field.get(object), mayNull);
+                break;
+            case BooleanArray:
+                SafeParcelWriter.write(parcel, fieldId, (boolean[]) field.get(object), mayNull);
+                break;
+            case ShortArray:
+                SafeParcelWriter.write(parcel, fieldId, (short[]) field.get(object), mayNull);
+                break;
+            case CharArray:
+                SafeParcelWriter.write(parcel, fieldId, (char[]) field.get(object), mayNull);
+                break;
             case Integer:
                 SafeParcelWriter.write(parcel, fieldId, (Integer) field.get(object));
                 break;
@@ -303,42 +800,192 @@ public final class SafeParcelUtil {
             case Byte:
                 SafeParcelWriter.write(parcel, fieldId, (Byte) field.get(object));
                 break;
+            case Short:
+                SafeParcelWriter.write(parcel, fieldId, (Short) field.get(object));
+                break;
+            case Adapted:
+                SafeParcelWriter.write(parcel, fieldId, field.get(object), info.adapter, flags, mayNull);
+                break;
         }
-        field.setAccessible(acc);
     }
 
-    private static void readField(SafeParcelable object, Parcel parcel, Field field, int header)
+    private static void readField(SafeParcelable object, Parcel parcel, SafeParcelSchema.FieldInfo info, int header, boolean reuse)
             throws IllegalAccessException {
-        boolean acc = field.isAccessible();
-        field.setAccessible(true);
-        long versionCode = -1;
-        if (field.isAnnotationPresent(SafeParcelable.Field.class)) {
-            versionCode = field.getAnnotation(SafeParcelable.Field.class).versionCode();
+        SafeParcelType type = info.getType();
+        ArrayList<Object> references = readReferences.get();
+        if (references != null && info.valueContainer) {
+            readReferences.remove();
+        }
+        try {
+            if (!reuse || !readFieldReusing(object, parcel, info, type, header, references == null)) {
+                readFieldValue(object, parcel, info, type, header);
+            }
+        } finally {
+            if (references != null) {
+                readReferences.set(references);
+            }
+        }
+    }
+
+    /**
+     * Reads a field reusing the current value of the field, if the type allows so.
+     *
+     * @return false if the field was not read
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean readFieldReusing(SafeParcelable object, Parcel parcel, SafeParcelSchema.FieldInfo info, SafeParcelType type, int header, boolean reuseObjects)
+            throws IllegalAccessException {
+        Field field = info.field;
+        Object current = field.get(object);
+        if (current == null)
+            return false;
+        // A value that was already read into would be overwritten with the content of this field
+        if (reusedValues.get().put(current, Boolean.TRUE) != null)
+            return false;
+        switch (type) {
+            case Parcelable: {
+                if (!reuseObjects || current.getClass() != info.parcelableClass || !(current instanceof AutoSafeParcelable))
+                    return false;
+                int size = SafeParcelReader.readSize(parcel, header);
+                if (size == 0) {
+                    field.set(object, null);
+                    return true;
+                }
+                int start = parcel.dataPosition();
+                readObject((SafeParcelable) current, parcel, true);
+                parcel.setDataPosition(start + size);
+                return true;
+            }
+            case StringList: {
+                if (!(current instanceof ArrayList)) return false;
+                ArrayList<String> list = SafeParcelReader.readStringList(parcel, header, (ArrayList<String>) current);
+                StringCache cache = info.stringCache;
+                if (list != null && cache != null) {
+                    for (int i = 0; i < list.size(); i++) {
+                        list.set(i, cache.intern(list.get(i)));
+                    }
+                }
+                field.set(object, list);
+                return true;
+            }
+            case IntegerList:
+                if (!(current instanceof ArrayList)) return false;
+                field.set(object, SafeParcelReader.readIntegerList(parcel, header, (ArrayList<Integer>) current));
+                return true;
+            case BooleanList:
+                if (!(current instanceof ArrayList)) return false;
+                field.set(object, SafeParcelReader.readBooleanList(parcel, header, (ArrayList<Boolean>) current));
+                return true;
+            case LongList:
+                if (!(current instanceof ArrayList)) return false;
+                field.set(object, SafeParcelReader.readLongList(parcel, header, (ArrayList<Long>) current));
+                return true;
+            case FloatList:
+                if (!(current instanceof ArrayList)) return false;
+                field.set(object, SafeParcelReader.readFloatList(parcel, header, (ArrayList<Float>) current));
+                return true;
+            case DoubleList:
+                if (!(current instanceof ArrayList)) return false;
+                field.set(object, SafeParcelReader.readDoubleList(parcel, header, (ArrayList<Double>) current));
+                return true;
+            case PackedIntegerList:
+                if (!(current instanceof ArrayList)) return false;
+                field.set(object, SafeParcelReader.readPackedIntegerList(parcel, header, (ArrayList<Integer>) current));
+                return true;
+            case PackedLongList:
+                if (!(current instanceof ArrayList)) return false;
+                field.set(object, SafeParcelReader.readPackedLongList(parcel, header, (ArrayList<Long>) current));
+                return true;
+            case PackedBooleanList:
+                if (!(current instanceof ArrayList)) return false;
+                field.set(object, SafeParcelReader.readPackedBooleanList(parcel, header, (ArrayList<Boolean>) current));
+                return true;
+            case List:
+                if (info.valueList || !(current instanceof ArrayList)) return false;
+                field.set(object, SafeParcelReader.readParcelableList(parcel, header, info.getCreator(), (ArrayList<Parcelable>) current));
+                return true;
+            case IntListView: {
+                PrimitiveLists.IntList view = (PrimitiveLists.IntList) current;
+                int[] arr = SafeParcelReader.readIntArray(parcel, header, view.array());
+                field.set(object, arr == null ? null : arr == view.array() ? view : new PrimitiveLists.IntList(arr));
+                return true;
+            }
+            case LongListView: {
+                PrimitiveLists.LongList view = (PrimitiveLists.LongList) current;
+                long[] arr = SafeParcelReader.readLongArray(parcel, header, view.array());
+                field.set(object, arr == null ? null : arr == view.array() ? view : new PrimitiveLists.LongList(arr));
+                return true;
+            }
+            case FloatListView: {
+                PrimitiveLists.FloatList view = (PrimitiveLists.FloatList) current;
+                float[] arr = SafeParcelReader.readFloatArray(parcel, header, view.array());
+                field.set(object, arr == null ? null : arr == view.array() ? view : new PrimitiveLists.FloatList(arr));
+                return true;
+            }
+            case DoubleListView: {
+                PrimitiveLists.DoubleList view = (PrimitiveLists.DoubleList) current;
+                double[] arr = SafeParcelReader.readDoubleArray(parcel, header, view.array());
+                field.set(object, arr == null ? null : arr == view.array() ? view : new PrimitiveLists.DoubleList(arr));
+                return true;
+            }
+            case ByteArray:
+                field.set(object, SafeParcelReader.readByteArray(parcel, header, (byte[]) current));
+                return true;
+            case FloatArray:
+                field.set(object, SafeParcelReader.readFloatArray(parcel, header, (float[]) current));
+                return true;
+            case IntArray:
+                field.set(object, SafeParcelReader.readIntArray(parcel, header, (int[]) current));
+                return true;
+            case LongArray:
+                field.set(object, SafeParcelReader.readLongArray(parcel, header, (long[]) current));
+                return true;
+            case DoubleArray:
+                field.set(object, SafeParcelReader.readDoubleArray(parcel, header, (double[]) current));
+                return true;
+            case BooleanArray:
+                field.set(object, SafeParcelReader.readBooleanArray(parcel, header, (boolean[]) current));
+                return true;
+            case ShortArray:
+                field.set(object, SafeParcelReader.readShortArray(parcel, header, (short[]) current));
+                return true;
+            case CharArray:
+                field.set(object, SafeParcelReader.readCharArray(parcel, header, (char[]) current));
+                return true;
+            default:
+                return false;
         }
-        switch (SafeParcelType.fromField(field)) {
+    }
+
+    private static void readFieldValue(SafeParcelable object, Parcel parcel, SafeParcelSchema.FieldInfo info, SafeParcelType type, int header)
+            throws IllegalAccessException {
+        Field field = info.field;
+        long versionCode = info.versionCode;
+        switch (type) {
             case Parcelable:
-                field.set(object, SafeParcelReader.readParcelable(parcel, header, getCreator(field)));
+                field.set(object, SafeParcelReader.readParcelable(parcel, header, info.getCreator()));
                 break;
             case Binder:
                 field.set(object, SafeParcelReader.readBinder(parcel, header));
                 break;
             case Interface: {
-                boolean hasStub = false;
-                for (Class<?> aClass : field.getType().getDeclaredClasses()) {
-                    try {
-                        field.set(object, aClass.getDeclaredMethod("asInterface", IBinder.class)
-                                .invoke(null, SafeParcelReader.readBinder(parcel, header)));
-                        hasStub = true;
-                        break;
-                    } catch (Exception ignored) {
-                    }
+                if (info.asInterface == null) throw new RuntimeException("Field has broken interface: " + field);
+                try {
+                    field.set(object, info.asInterface.invoke(null, SafeParcelReader.readBinder(parcel, header)));
+                } catch (InvocationTargetException e) {
+                    throw new RuntimeException("Field has broken interface: " + field, e);
                 }
-                if (!hasStub) throw new RuntimeException("Field has broken interface: " + field);
                 break;
             }
-            case StringList:
-                field.set(object, SafeParcelReader.readStringList(parcel, header));
+            case StringList: {
+                StringCache cache = info.stringCache;
+                if (cache == null) {
+                    field.set(object, SafeParcelReader.readStringList(parcel, header));
+                } else {
+                    field.set(object, SafeParcelReader.readStringList(parcel, header, cache));
+                }
                 break;
+            }
             case IntegerList:
                 field.set(object, SafeParcelReader.readIntegerList(parcel, header));
                 break;
@@ -354,40 +1001,66 @@ public final class SafeParcelUtil {
             case DoubleList:
                 field.set(object, SafeParcelReader.readDoubleList(parcel, header));
                 break;
-            case List: {
-                Class clazz = getListItemClass(field);
-                Object val;
-                if (clazz == null || !Parcelable.class.isAssignableFrom(clazz) || useValueParcel(field)) {
-                    val = SafeParcelReader.readList(parcel, header, getClassLoader(clazz));
-                } else {
-                    val = SafeParcelReader.readParcelableList(parcel, header, getCreator(clazz));
-                }
-                field.set(object, val);
+            case IntListView: {
+                int[] arr = SafeParcelReader.readIntArray(parcel, header);
+                field.set(object, arr == null ? null : new PrimitiveLists.IntList(arr));
                 break;
             }
-            case Map: {
-                Class clazz = getSubClass(field);
-                Object val = SafeParcelReader.readMap(parcel, header, getClassLoader(clazz));
-                field.set(object, val);
+            case LongListView: {
+                long[] arr = SafeParcelReader.readLongArray(parcel, header);
+                field.set(object, arr == null ? null : new PrimitiveLists.LongList(arr));
+                break;
+            }
+            case FloatListView: {
+                float[] arr = SafeParcelReader.readFloatArray(parcel, header);
+                field.set(object, arr == null ? null : new PrimitiveLists.FloatList(arr));
                 break;
             }
-            case Bundle: {
-                Class clazz = getSubClass(field);
+            case DoubleListView: {
+                double[] arr = SafeParcelReader.readDoubleArray(parcel, header);
+                field.set(object, arr == null ? null : new PrimitiveLists.DoubleList(arr));
+                break;
+            }
+            case PackedIntegerList:
+                field.set(object, SafeParcelReader.readPackedIntegerList(parcel, header));
+                break;
+            case PackedLongList:
+                field.set(object, SafeParcelReader.readPackedLongList(parcel, header));
+                break;
+            case PackedBooleanList:
+                field.set(object, SafeParcelReader.readPackedBooleanList(parcel, header));
+                break;
+            case List: {
                 Object val;
-                if (clazz == null || !Parcelable.class.isAssignableFrom(clazz) || useValueParcel(field) /* should not happen on Bundles */) {
-                    val = SafeParcelReader.readBundle(parcel, header, getClassLoader(field.getDeclaringClass()));
+                if (info.valueList) {
+                    val = SafeParcelReader.readList(parcel, header, info.classLoader);
                 } else {
-                    val = SafeParcelReader.readBundle(parcel, header, getClassLoader(clazz));
+                    val = SafeParcelReader.readParcelableList(parcel, header, info.getCreator());
                 }
                 field.set(object, val);
                 break;
             }
+            case Map:
+                field.set(object, SafeParcelReader.readMap(parcel, header, info.classLoader));
+                break;
+            case Bundle:
+                field.set(object, SafeParcelReader.readBundle(parcel, header, info.classLoader));
+                break;
+            case LazyBundle:
+                field.set(object, SafeParcelReader.readLazyBundle(parcel, header, info.classLoader));
+                break;
             case ParcelableArray:
-                field.set(object, SafeParcelReader.readParcelableArray(parcel, header, getCreator(field)));
+                field.set(object, SafeParcelReader.readParcelableArray(parcel, header, info.getCreator()));
                 break;
-            case StringArray:
-                field.set(object, SafeParcelReader.readStringArray(parcel, header));
+            case StringArray: {
+                StringCache cache = info.stringCache;
+                if (cache == null) {
+                    field.set(object, SafeParcelReader.readStringArray(parcel, header));
+                } else {
+                    field.set(object, SafeParcelReader.readStringArray(parcel, header, cache));
+                }
                 break;
+            }
             case ByteArray:
                 field.set(object, SafeParcelReader.readByteArray(parcel, header));
                 break;
@@ -400,6 +1073,21 @@ public final class SafeParcelUtil {
             case IntArray:
                 field.set(object, SafeParcelReader.readIntArray(parcel, header));
                 break;
+            case LongArray:
+                field.set(object, SafeParcelReader.readLongArray(parcel, header));
+                break;
+            case DoubleArray:
+                field.set(object, SafeParcelReader.readDoubleArray(parcel, header));
+                break;
+            case BooleanArray:
+                field.set(object, SafeParcelReader.readBooleanArray(parcel, header));
+                break;
+            case ShortArray:
+                field.set(object, SafeParcelReader.readShortArray(parcel, header));
+                break;
+            case CharArray:
+                field.set(object, SafeParcelReader.readCharArray(parcel, header));
+                break;
             case Integer: {
                 int i = SafeParcelReader.readInt(parcel, header);
                 if (versionCode != -1 && i > versionCode) {
@@ -425,27 +1113,41 @@ public final class SafeParcelUtil {
             case Double:
                 field.set(object, SafeParcelReader.readDouble(parcel, header));
                 break;
-            case String:
-                field.set(object, SafeParcelReader.readString(parcel, header));
+            case String: {
+                StringCache cache = info.stringCache;
+                if (cache == null) {
+                    field.set(object, SafeParcelReader.readString(parcel, header));
+                } else {
+                    field.set(object, SafeParcelReader.readString(parcel, header, cache));
+                }
                 break;
+            }
             case Byte:
                 field.set(object, SafeParcelReader.readByte(parcel, header));
                 break;
+            case Short:
+                field.set(object, SafeParcelReader.readShort(parcel, header));
+                break;
+            case Adapted:
+                field.set(object, SafeParcelReader.read(parcel, header, info.adapter));
+                break;
             default:
-                throw new IllegalStateException("Unexpected value: " + SafeParcelType.fromField(field));
+                throw new IllegalStateException("Unexpected value: " + type);
         }
-        field.setAccessible(acc);
     }
 
-    private enum SafeParcelType {
-        Parcelable, Binder, Interface, Bundle,
+    enum SafeParcelType {
+        Parcelable, Binder, Interface, Bundle, LazyBundle,
         StringList, IntegerList, BooleanList, LongList, FloatList, DoubleList, List, Map,
+        PackedIntegerList, PackedLongList, PackedBooleanList,
+        IntListView, LongListView, FloatListView, DoubleListView,
         ParcelableArray, StringArray, ByteArray, ByteArrayArray, FloatArray, IntArray,
-        Integer, Long, Boolean, Float, Double, String, Byte;
+        LongArray, DoubleArray, BooleanArray, ShortArray, CharArray,
+        Integer, Long, Boolean, Float, Double, String, Byte, Short, Adapted;
 
         public static SafeParcelType fromField(Field field) {
-            Class clazz = field.getType();
-            Class component = clazz.getComponentType();
+            Class<?> clazz = field.getType();
+            Class<?> component = clazz.getComponentType();
             if (clazz.isArray() && component != null) {
                 if (Parcelable.class.isAssignableFrom(component)) return ParcelableArray;
                 if (String.class.isAssignableFrom(component)) return StringArray;
@@ -453,9 +1155,16 @@ public final class SafeParcelUtil {
                 if (byte[].class.isAssignableFrom(component)) return ByteArrayArray;
                 if (float.class.isAssignableFrom(component)) return FloatArray;
                 if (int.class.isAssignableFrom(component)) return IntArray;
+                if (long.class.isAssignableFrom(component)) return LongArray;
+                if (double.class.isAssignableFrom(component)) return DoubleArray;
+                if (boolean.class.isAssignableFrom(component)) return BooleanArray;
+                if (short.class.isAssignableFrom(component)) return ShortArray;
+                if (char.class.isAssignableFrom(component)) return CharArray;
             }
             if (Bundle.class.isAssignableFrom(clazz))
                 return Bundle;
+            if (clazz == LazyBundle.class)
+                return LazyBundle;
             if (Parcelable.class.isAssignableFrom(clazz))
                 return Parcelable;
             if (IBinder.class.isAssignableFrom(clazz))
@@ -464,6 +1173,9 @@ public final class SafeParcelUtil {
                 return Interface;
             if (clazz == List.class || clazz == ArrayList.class) {
                 if (getListItemClass(field) == String.class && !useValueParcel(field)) return StringList;
+                if (getListItemClass(field) == Integer.class && usePackedList(field)) return PackedIntegerList;
+                if (getListItemClass(field) == Boolean.class && usePackedList(field)) return PackedBooleanList;
+                if (getListItemClass(field) == Long.class && usePackedList(field)) return PackedLongList;
                 if (getListItemClass(field) == Integer.class && useDirectList(field)) return IntegerList;
                 if (getListItemClass(field) == Boolean.class && useDirectList(field)) return BooleanList;
                 if (getListItemClass(field) == Long.class && useDirectList(field)) return LongList;
@@ -471,6 +1183,14 @@ public final class SafeParcelUtil {
                 if (getListItemClass(field) == Double.class && useDirectList(field)) return DoubleList;
                 return List;
             }
+            if (clazz == PrimitiveLists.IntList.class)
+                return IntListView;
+            if (clazz == PrimitiveLists.LongList.class)
+                return LongListView;
+            if (clazz == PrimitiveLists.FloatList.class)
+                return FloatListView;
+            if (clazz == PrimitiveLists.DoubleList.class)
+                return DoubleListView;
             if (clazz == Map.class || clazz == HashMap.class)
                 return Map;
             if (clazz == int.class || clazz == Integer.class)
@@ -485,16 +1205,81 @@ public final class SafeParcelUtil {
                 return Double;
             if (clazz == byte.class || clazz == Byte.class)
                 return Byte;
+            if (clazz == short.class || clazz == Short.class)
+                return Short;
             if (clazz == java.lang.String.class)
                 return String;
+            if (TypeAdapters.get(clazz) != null)
+                return Adapted;
             throw new RuntimeException("Type is not yet usable with SafeParcelUtil: " + clazz);
         }
     }
 
+    /**
+     * @return a fingerprint of the fields of the class, their ids, types and the flags that affect their encoding.
+     * Classes with equal fingerprints read and write each other's fields the same way. Fields of nested objects are
+     * not included.
+     */
+    public static long getSchemaFingerprint(Class<? extends SafeParcelable> clazz) {
+        return SafeParcelSchema.of(clazz).fingerprint();
+    }
+
+    /**
+     * @return a description of the fields of the class, from which the fingerprint is computed. It can be passed to
+     * {@link #diffSchema(Class, String)} on another peer when the fingerprints differ.
+     */
+    public static String getSchemaDescription(Class<? extends SafeParcelable> clazz) {
+        return SafeParcelSchema.of(clazz).description();
+    }
+
+    /**
+     * @param otherDescription a description returned by {@link #getSchemaDescription(Class)}
+     * @return one message per field that differs from the other description, ordered by field id. Empty if the schemas
+     * match.
+     */
+    public static List<String> diffSchema(Class<? extends SafeParcelable> clazz, String otherDescription) {
+        Map<Integer, String> local = parseSchemaDescription(getSchemaDescription(clazz));
+        Map<Integer, String> other = parseSchemaDescription(otherDescription);
+        Set<Integer> ids = new TreeSet<>(local.keySet());
+        ids.addAll(other.keySet());
+        List<String> diff = new ArrayList<>();
+        for (Integer id : ids) {
+            String localField = local.get(id);
+            String otherField = other.get(id);
+            if (otherField == null) {
+                diff.add(String.format("Field %d (%s) only in local schema", id, localField));
+            } else if (localField == null) {
+                diff.add(String.format("Field %d (%s) only in other schema", id, otherField));
+            } else if (!localField.equals(otherField)) {
+                diff.add(String.format("Field %d is %s locally, %s in other schema", id, localField, otherField));
+            }
+        }
+        return diff;
+    }
+
+    private static Map<Integer, String> parseSchemaDescription(String description) {
+        Map<Integer, String> fields = new HashMap<>();
+        for (String line : description.split("\n")) {
+            if (line.isEmpty()) continue;
+            int space = line.indexOf(' ');
+            try {
+                fields.put(Integer.parseInt(line.substring(0, space)), line.substring(space + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Malformed schema description: " + line);
+            }
+        }
+        return fields;
+    }
+
     public static <T extends Parcelable> byte[] asByteArray(T parcelable) {
         if (parcelable == null) return null;
-        Parcel parcel = Parcel.obtain();
-        parcelable.writeToParcel(parcel, 0);
+        Parcel parcel = ParcelFactory.obtainParcel();
+        SpillPolicy spillPolicy = SafeParcelWriter.enterInline();
+        try {
+            parcelable.writeToParcel(parcel, 0);
+        } finally {
+            SafeParcelWriter.restoreSpillPolicy(spillPolicy);
+        }
         byte[] bytes = parcel.marshall();
         parcel.recycle();
         return bytes;
@@ -502,7 +1287,7 @@ public final class SafeParcelUtil {
 
     public static <T extends Parcelable> T fromByteArray(byte[] bytes, Parcelable.Creator<T> tCreator) {
         if (bytes == null) return null;
-        Parcel parcel = Parcel.obtain();
+        Parcel parcel = ParcelFactory.obtainParcel();
         parcel.unmarshall(bytes, 0, bytes.length);
         parcel.setDataPosition(0);
         T parcelable = tCreator.createFromParcel(parcel);
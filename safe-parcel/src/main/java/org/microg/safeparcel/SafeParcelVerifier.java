@@ -0,0 +1,324 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Parcel;
+import android.util.SparseArray;
+
+import org.microg.safeparcel.core.SafeParcelFormat;
+
+/**
+ * Checks the structure of SafeParcel objects without creating any of them.
+ * <p>
+ * The verifier walks object and field headers and ensures that all sizes are within the bounds of the enclosing object,
+ * that nesting does not exceed a maximum depth and, if the expected class is known, that fields have the sizes and
+ * element counts their type requires. Only nested {@link AutoSafeParcelable}s are verified recursively, the content of
+ * other Parcelables, strings, bundles, maps and value lists is only checked to stay within its field.
+ * <p>
+ * Verification starts at the current data position of the parcel, which is restored afterwards.
+ */
+@SuppressWarnings("MagicNumber")
+public final class SafeParcelVerifier {
+    private final Parcel parcel;
+    private final int maxDepth;
+    private int objectCount;
+    /**
+     * Whether content was skipped that may hold objects the reader registers for references, such as SafeParcelables
+     * with a hand-written creator. Reference indices can't be checked against {@link #objectCount} then.
+     */
+    private boolean uncountedObjects;
+    /**
+     * Whether an enclosing object opened a shared references scope, the reader only accepts references then.
+     */
+    private boolean sharedReferences;
+    private int failureOffset = -1;
+    private String failureMessage;
+
+    private SafeParcelVerifier(Parcel parcel, int maxDepth) {
+        this.parcel = parcel;
+        this.maxDepth = maxDepth;
+    }
+
+    public static Result verify(Parcel parcel) {
+        return verify(parcel, null);
+    }
+
+    /**
+     * Verifies with the maximum depth of the current {@link SafeParcelReader#getDecodeLimits() decode limits}, so that
+     * objects accepted here are not rejected by the reader for their nesting.
+     */
+    public static Result verify(Parcel parcel, Class<? extends SafeParcelable> clazz) {
+        return verify(parcel, clazz, SafeParcelReader.getDecodeLimits().getMaxDepth());
+    }
+
+    /**
+     * @param maxDepth maximum number of nested objects, counting the outermost one like {@link DecodeLimits#getMaxDepth()}
+     */
+    public static Result verify(Parcel parcel, Class<? extends SafeParcelable> clazz, int maxDepth) {
+        int position = parcel.dataPosition();
+        try {
+            SafeParcelVerifier verifier = new SafeParcelVerifier(parcel, maxDepth);
+            if (verifier.verifyObject(clazz, parcel.dataSize(), 0)) {
+                return new Result(-1, null);
+            }
+            return new Result(verifier.failureOffset, verifier.failureMessage);
+        } finally {
+            parcel.setDataPosition(position);
+        }
+    }
+
+    private boolean fail(int offset, String message) {
+        failureOffset = offset;
+        failureMessage = message;
+        return false;
+    }
+
+    private boolean verifyObject(Class<?> clazz, int limit, int depth) {
+        int offset = parcel.dataPosition();
+        if (depth >= maxDepth)
+            return fail(offset, "Nesting deeper than " + maxDepth);
+        if (limit - offset < 4)
+            return fail(offset, "Truncated object header");
+        int header = parcel.readInt();
+        if (SafeParcelReader.getFieldId(header) == SafeParcelable.SAFE_PARCEL_REFERENCE_MAGIC) {
+            if (!verifySize(offset, header, limit, 4))
+                return false;
+            if (!sharedReferences)
+                return fail(offset, "Object reference outside of shared references");
+            int index = parcel.readInt();
+            if (index < 0 || (!uncountedObjects && index >= objectCount))
+                return fail(offset, "Invalid object reference " + index);
+            return true;
+        }
+        if (SafeParcelReader.getFieldId(header) != SafeParcelable.SAFE_PARCEL_OBJECT_MAGIC)
+            return fail(offset, "Expected object header. Got 0x" + Integer.toHexString(header));
+        int size = readSize(offset, header, limit);
+        if (size < 0)
+            return false;
+        objectCount++;
+        int end = parcel.dataPosition() + size;
+        SafeParcelSchema schema = clazz == null ? null : SafeParcelSchema.of(clazz);
+        SparseArray<SafeParcelSchema.FieldInfo> fieldMap = schema == null ? null : schema.fieldsById;
+        boolean ownsSharedReferences = false;
+        while (parcel.dataPosition() < end) {
+            int fieldOffset = parcel.dataPosition();
+            if (end - fieldOffset < 4)
+                return fail(fieldOffset, "Truncated field header");
+            int fieldHeader = parcel.readInt();
+            int fieldSize = readSize(fieldOffset, fieldHeader, end);
+            if (fieldSize < 0)
+                return false;
+            int fieldStart = parcel.dataPosition();
+            int fieldId = SafeParcelReader.getFieldId(fieldHeader);
+            SafeParcelSchema.FieldInfo field = fieldMap == null ? null : fieldMap.get(fieldId);
+            if (field == null && fieldId == SafeParcelable.SAFE_PARCEL_SHARED_REFERENCES_FIELD && !sharedReferences) {
+                if (schema != null && !schema.shareReferences)
+                    return fail(fieldOffset, "Shared references in " + clazz.getName());
+                sharedReferences = true;
+                ownsSharedReferences = true;
+            }
+            if (field == null && fieldSize > 0 && fieldId != SafeParcelable.SAFE_PARCEL_SHARED_REFERENCES_FIELD)
+                uncountedObjects = true;
+            if (field != null && !verifyField(field, fieldOffset, fieldSize, depth))
+                return false;
+            parcel.setDataPosition(fieldStart + fieldSize);
+        }
+        if (ownsSharedReferences)
+            sharedReferences = false;
+        return true;
+    }
+
+    private int readSize(int offset, int header, int limit) {
+        int size;
+        if ((header & 0xFFFF0000) != 0xFFFF0000) {
+            size = header >> 16 & 0xFFFF;
+        } else {
+            if (limit - parcel.dataPosition() < 4) {
+                fail(offset, "Truncated size");
+                return -1;
+            }
+            size = parcel.readInt();
+        }
+        if (size < 0 || size > limit - parcel.dataPosition()) {
+            fail(offset, "Size " + size + " exceeds enclosing object");
+            return -1;
+        }
+        return size;
+    }
+
+    private boolean verifySize(int offset, int header, int limit, int expectedSize) {
+        int size = readSize(offset, header, limit);
+        if (size < 0)
+            return false;
+        if (size != expectedSize)
+            return fail(offset, "Expected size " + expectedSize + " got " + size);
+        return true;
+    }
+
+    private boolean verifyField(SafeParcelSchema.FieldInfo field, int offset, int size, int depth) {
+        SafeParcelUtil.SafeParcelType type = field.type;
+        if (type == null)
+            return true;
+        int end = parcel.dataPosition() + size;
+        switch (type) {
+            case Integer:
+            case Boolean:
+            case Float:
+            case Byte:
+            case Short:
+                return size == 4 || fail(offset, "Expected size 4 got " + size + " for field " + field.field.getName());
+            case Long:
+            case Double:
+                return size == 8 || fail(offset, "Expected size 8 got " + size + " for field " + field.field.getName());
+            case Parcelable:
+                if (size == 0)
+                    return true;
+                if (!isAutoSafeParcelable(field.parcelableClass)) {
+                    uncountedObjects = true;
+                    return true;
+                }
+                return verifyObject(field.parcelableClass, end, depth + 1) && verifyFilled(offset, end);
+            case ParcelableArray:
+                return verifyObjects(field.parcelableClass, offset, end, depth);
+            case List:
+                if (field.valueList)
+                    return true;
+                return verifyObjects(field.parcelableClass, offset, end, depth);
+            case ByteArray:
+                if (size >= 8 && parcel.readInt() == SafeParcelFormat.SPILLED_MAGIC) {
+                    if (SafeParcelReader.getSpillPolicy() == null)
+                        return fail(offset, "Spilled fields are not accepted");
+                    return parcel.readInt() >= 0 || fail(offset, "Invalid spilled length");
+                }
+                parcel.setDataPosition(end - size);
+                return verifyCount(offset, size, 1, true);
+            case IntegerList:
+            case BooleanList:
+            case FloatList:
+            case IntArray:
+            case FloatArray:
+            case BooleanArray:
+            case CharArray:
+            case ShortArray:
+            case IntListView:
+            case FloatListView:
+            case StringList:
+            case StringArray:
+            case ByteArrayArray:
+                return verifyCount(offset, size, 4, true);
+            case LongList:
+            case DoubleList:
+            case LongArray:
+            case DoubleArray:
+            case LongListView:
+            case DoubleListView:
+                return verifyCount(offset, size, 8, true);
+            case PackedIntegerList:
+            case PackedLongList:
+            case PackedBooleanList:
+                return verifyPacked(offset, size, type == SafeParcelUtil.SafeParcelType.PackedBooleanList);
+            default:
+                return true;
+        }
+    }
+
+    private boolean verifyCount(int offset, int size, int elementSize, boolean mayNull) {
+        if (size == 0)
+            return true;
+        if (size < 4)
+            return fail(offset, "Truncated element count");
+        int count = parcel.readInt();
+        if (count == -1 && mayNull)
+            return true;
+        if (count < 0 || (long) count * elementSize > size - 4)
+            return fail(offset, "Element count " + count + " exceeds field size " + size);
+        return true;
+    }
+
+    private boolean verifyPacked(int offset, int size, boolean bits) {
+        if (size == 0)
+            return true;
+        if (size < 12)
+            return fail(offset, "Truncated packed list");
+        if (parcel.readInt() != SafeParcelable.SAFE_PARCEL_PACKED_LIST_MAGIC)
+            return fail(offset, "Expected packed list");
+        int count = parcel.readInt();
+        int length = parcel.readInt();
+        if (length < 0 || length > size - 12)
+            return fail(offset, "Packed data length " + length + " exceeds field size " + size);
+        long required = bits ? ((long) count + 7) / 8 : count;
+        if (count < 0 || required > length)
+            return fail(offset, "Element count " + count + " exceeds packed data length " + length);
+        return true;
+    }
+
+    private boolean verifyObjects(Class<?> clazz, int offset, int end, int depth) {
+        if (end == parcel.dataPosition())
+            return true;
+        if (end - parcel.dataPosition() < 4)
+            return fail(offset, "Truncated element count");
+        int count = parcel.readInt();
+        if (count == -1)
+            return true;
+        if (count < 0 || (long) count * 4 > end - parcel.dataPosition())
+            return fail(offset, "Element count " + count + " exceeds field size");
+        boolean recurse = clazz != null && isAutoSafeParcelable(clazz);
+        for (int i = 0; i < count; i++) {
+            int elementOffset = parcel.dataPosition();
+            if (end - elementOffset < 4)
+                return fail(elementOffset, "Truncated element");
+            if (parcel.readInt() == 0)
+                continue;
+            if (!recurse) {
+                uncountedObjects = true;
+                return true;
+            }
+            if (!verifyObject(clazz, end, depth + 1))
+                return false;
+        }
+        return verifyFilled(offset, end);
+    }
+
+    private boolean verifyFilled(int offset, int end) {
+        if (parcel.dataPosition() != end)
+            return fail(offset, "Field size does not match content");
+        return true;
+    }
+
+    private static boolean isAutoSafeParcelable(Class<?> clazz) {
+        return AutoSafeParcelable.class.isAssignableFrom(clazz);
+    }
+
+    public static final class Result {
+        private final int failureOffset;
+        private final String message;
+
+        private Result(int failureOffset, String message) {
+            this.failureOffset = failureOffset;
+            this.message = message;
+        }
+
+        public boolean isValid() {
+            return failureOffset < 0;
+        }
+
+        /**
+         * @return data position of the first header that failed verification or -1 if verification passed.
+         */
+        public int getFailureOffset() {
+            return failureOffset;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return isValid() ? "Result{valid}" : "Result{failureOffset=" + failureOffset + ", message='" + message + "'}";
+        }
+    }
+}
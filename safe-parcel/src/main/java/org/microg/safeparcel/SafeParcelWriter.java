@@ -10,21 +10,92 @@ import android.os.IBinder;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import org.microg.safeparcel.core.SafeParcelFormat;
+import org.microg.safeparcel.core.VarInt;
+
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
 @SuppressWarnings("MagicNumber")
 public final class SafeParcelWriter {
 
+    /**
+     * Largest field content that is moved to compact its header, larger fields keep the two-int header.
+     */
+    private static final int COMPACT_HEADER_MAX_SIZE = 1024;
+
+    /**
+     * Policy of the outermost write on this thread that decided about spilling, see {@link #writeSpilling}.
+     */
+    private static final ThreadLocal<SpillPolicy> spillPolicy = new ThreadLocal<>();
+    private static final SpillPolicy INLINE = new SpillPolicy(Integer.MAX_VALUE, null);
+
     private SafeParcelWriter() {
     }
 
+    /**
+     * Writes the parcelable, moving large byte arrays in it and in nested objects out of the parcel as given by the
+     * policy. Parcels with spilled fields hold file descriptors (unless a custom policy is used) and can't be
+     * marshalled. Receivers must set a policy with {@link SafeParcelReader#setSpillPolicy(SpillPolicy)} to accept
+     * them.
+     * <p>
+     * If this is called while writing an enclosing object, the policy of the enclosing write is kept. Writes whose
+     * result is marshalled, such as {@link SafeParcelUtil#asByteArray(Parcelable)}, {@link SafeParcelOutputStream}
+     * and {@link SafeParcelUtil#writeCanonical(SafeParcelable, Parcel, int)}, never spill.
+     */
+    public static void writeSpilling(Parcelable parcelable, Parcel parcel, int flags, SpillPolicy policy) {
+        if (policy == null) throw new NullPointerException();
+        boolean owner = enterSpillPolicy(policy);
+        try {
+            parcelable.writeToParcel(parcel, flags);
+        } finally {
+            if (owner) {
+                spillPolicy.remove();
+            }
+        }
+    }
+
+    /**
+     * Sets the policy for this thread unless a policy is already set.
+     *
+     * @return true if the policy was set and needs to be removed by the caller
+     */
+    static boolean enterSpillPolicy(SpillPolicy policy) {
+        if (policy == null || spillPolicy.get() != null)
+            return false;
+        spillPolicy.set(policy);
+        return true;
+    }
+
+    /**
+     * Disables spilling for this thread, until {@link #restoreSpillPolicy(SpillPolicy)} is called.
+     *
+     * @return the policy to restore
+     */
+    static SpillPolicy enterInline() {
+        SpillPolicy previous = spillPolicy.get();
+        spillPolicy.set(INLINE);
+        return previous;
+    }
+
+    static void restoreSpillPolicy(SpillPolicy previous) {
+        if (previous == null) {
+            spillPolicy.remove();
+        } else {
+            spillPolicy.set(previous);
+        }
+    }
+
+    static boolean isSpilling() {
+        SpillPolicy policy = spillPolicy.get();
+        return policy != null && policy != INLINE;
+    }
+
     private static void writeHeader(Parcel parcel, int fieldId, int size) {
-        if (size >= 0xFFFF) {
-            parcel.writeInt(0xFFFF0000 | fieldId);
+        parcel.writeInt(SafeParcelFormat.makeHeader(fieldId, size));
+        if (size >= SafeParcelFormat.LONG_SIZE) {
             parcel.writeInt(size);
-        } else {
-            parcel.writeInt(size << 16 | fieldId);
         }
     }
 
@@ -56,6 +127,39 @@ public final class SafeParcelWriter {
         parcel.setDataPosition(end);
     }
 
+    /**
+     * Like {@link #finishObjectHeader(Parcel, int)}, but rewrites the header of a small field to the short form, moving
+     * the content back by 4 bytes. Only used for content that is plain data without binders or file descriptors.
+     */
+    private static void finishCompactHeader(Parcel parcel, int fieldId, int start) {
+        int end = parcel.dataPosition();
+        int length = end - start;
+        if (length > COMPACT_HEADER_MAX_SIZE || (length & 3) != 0 || parcel.dataSize() != end) {
+            finishObjectHeader(parcel, start);
+            return;
+        }
+        int[] content = new int[length >> 2];
+        parcel.setDataPosition(start);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = parcel.readInt();
+        }
+        parcel.setDataPosition(start - 8);
+        writeHeader(parcel, fieldId, length);
+        for (int value : content) {
+            parcel.writeInt(value);
+        }
+        parcel.setDataSize(end - 4);
+    }
+
+    public static void writeObjectReference(Parcel parcel, int index) {
+        writeHeader(parcel, SafeParcelable.SAFE_PARCEL_REFERENCE_MAGIC, 4);
+        parcel.writeInt(index);
+    }
+
+    public static void writeSharedReferencesMarker(Parcel parcel) {
+        writeHeader(parcel, SafeParcelable.SAFE_PARCEL_SHARED_REFERENCES_FIELD, 0);
+    }
+
     public static void write(Parcel parcel, int fieldId, Boolean val) {
         if (val == null) return;
         writeHeader(parcel, fieldId, 4);
@@ -106,7 +210,7 @@ public final class SafeParcelWriter {
         } else {
             int start = writeObjectHeader(parcel, fieldId);
             parcel.writeString(val);
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -134,16 +238,45 @@ public final class SafeParcelWriter {
         }
     }
 
+    public static void write(Parcel parcel, int fieldId, LazyBundle val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            val.writeTo(parcel);
+            finishObjectHeader(parcel, start);
+        }
+    }
+
     public static void write(Parcel parcel, int fieldId, byte[] val, boolean mayNull) {
         if (val == null) {
             if (mayNull) {
                 writeHeader(parcel, fieldId, 0);
             }
         } else {
+            SpillPolicy policy = spillPolicy.get();
+            if (policy != null && policy != INLINE && val.length >= policy.getThreshold()) {
+                writeSpilled(parcel, fieldId, val, policy);
+                return;
+            }
             int start = writeObjectHeader(parcel, fieldId);
             parcel.writeByteArray(val);
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
+        }
+    }
+
+    private static void writeSpilled(Parcel parcel, int fieldId, byte[] val, SpillPolicy policy) {
+        int start = writeObjectHeader(parcel, fieldId);
+        parcel.writeInt(SafeParcelFormat.SPILLED_MAGIC);
+        parcel.writeInt(val.length);
+        try {
+            policy.writeReference(parcel, val);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't spill field " + fieldId, e);
         }
+        finishObjectHeader(parcel, start);
     }
 
     public static void write(Parcel parcel, int fieldId, byte[][] val, boolean mayNull) {
@@ -157,7 +290,7 @@ public final class SafeParcelWriter {
             for (byte[] arr : val) {
                 parcel.writeByteArray(arr);
             }
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -169,7 +302,7 @@ public final class SafeParcelWriter {
         } else {
             int start = writeObjectHeader(parcel, fieldId);
             parcel.writeFloatArray(val);
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -181,7 +314,70 @@ public final class SafeParcelWriter {
         } else {
             int start = writeObjectHeader(parcel, fieldId);
             parcel.writeIntArray(val);
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
+        }
+    }
+
+    public static void write(Parcel parcel, int fieldId, long[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            parcel.writeLongArray(val);
+            finishCompactHeader(parcel, fieldId, start);
+        }
+    }
+
+    public static void write(Parcel parcel, int fieldId, double[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            parcel.writeDoubleArray(val);
+            finishCompactHeader(parcel, fieldId, start);
+        }
+    }
+
+    public static void write(Parcel parcel, int fieldId, boolean[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            parcel.writeBooleanArray(val);
+            finishCompactHeader(parcel, fieldId, start);
+        }
+    }
+
+    public static void write(Parcel parcel, int fieldId, char[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            parcel.writeCharArray(val);
+            finishCompactHeader(parcel, fieldId, start);
+        }
+    }
+
+    public static void write(Parcel parcel, int fieldId, short[] val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            parcel.writeInt(val.length);
+            for (short s : val) {
+                parcel.writeInt(s);
+            }
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -193,7 +389,7 @@ public final class SafeParcelWriter {
         } else {
             int start = writeObjectHeader(parcel, fieldId);
             parcel.writeStringArray(val);
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -205,7 +401,7 @@ public final class SafeParcelWriter {
         } else {
             int start = writeObjectHeader(parcel, fieldId);
             parcel.writeStringList(val);
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -220,7 +416,7 @@ public final class SafeParcelWriter {
             for (Integer i : val) {
                 parcel.writeInt(i);
             }
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -235,7 +431,7 @@ public final class SafeParcelWriter {
             for (Long l : val) {
                 parcel.writeLong(l);
             }
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -250,7 +446,7 @@ public final class SafeParcelWriter {
             for (Float f : val) {
                 parcel.writeFloat(f);
             }
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -265,7 +461,7 @@ public final class SafeParcelWriter {
             for (Double d : val) {
                 parcel.writeDouble(d);
             }
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
@@ -280,19 +476,76 @@ public final class SafeParcelWriter {
             for (Boolean b : val) {
                 parcel.writeInt(b ? 1 : 0);
             }
-            finishObjectHeader(parcel, start);
+            finishCompactHeader(parcel, fieldId, start);
+        }
+    }
+
+    public static void writePackedIntegerList(Parcel parcel, int fieldId, List<Integer> val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            byte[] bytes = new byte[val.size() * VarInt.MAX_INT_SIZE];
+            int pos = 0;
+            for (Integer i : val) {
+                pos = VarInt.writeZigZagInt(bytes, pos, i);
+            }
+            writePacked(parcel, val.size(), bytes, pos);
+            finishCompactHeader(parcel, fieldId, start);
         }
     }
 
+    public static void writePackedLongList(Parcel parcel, int fieldId, List<Long> val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            byte[] bytes = new byte[val.size() * VarInt.MAX_LONG_SIZE];
+            int pos = 0;
+            for (Long l : val) {
+                pos = VarInt.writeZigZagLong(bytes, pos, l);
+            }
+            writePacked(parcel, val.size(), bytes, pos);
+            finishCompactHeader(parcel, fieldId, start);
+        }
+    }
+
+    public static void writePackedBooleanList(Parcel parcel, int fieldId, List<Boolean> val, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            byte[] bytes = new byte[(val.size() + 7) / 8];
+            int i = 0;
+            for (Boolean b : val) {
+                if (b) bytes[i >> 3] |= 1 << (i & 7);
+                i++;
+            }
+            writePacked(parcel, val.size(), bytes, bytes.length);
+            finishCompactHeader(parcel, fieldId, start);
+        }
+    }
+
+    private static void writePacked(Parcel parcel, int count, byte[] bytes, int length) {
+        parcel.writeInt(SafeParcelable.SAFE_PARCEL_PACKED_LIST_MAGIC);
+        parcel.writeInt(count);
+        parcel.writeByteArray(bytes, 0, length);
+    }
+
+    /**
+     * Writes a non-null element in a single pass. Readers only check the int before an element for being non-zero, like
+     * {@link Parcel#createTypedArray(Parcelable.Creator)} does, so it is written as a presence marker of 1 instead of
+     * being patched with the element size afterwards.
+     */
     private static <T extends Parcelable> void writeArrayPart(Parcel parcel, T val, int flags) {
-        int before = parcel.dataPosition();
         parcel.writeInt(1);
-        int start = parcel.dataPosition();
         val.writeToParcel(parcel, flags);
-        int end = parcel.dataPosition();
-        parcel.setDataPosition(before);
-        parcel.writeInt(end - start);
-        parcel.setDataPosition(end);
     }
 
     public static <T extends Parcelable> void write(Parcel parcel, int fieldId, T[] val, int flags, boolean mayNull) {
@@ -357,6 +610,19 @@ public final class SafeParcelWriter {
         }
     }
 
+    public static <T> void write(Parcel parcel, int fieldId, T val, TypeAdapter<T> adapter, int flags, boolean mayNull) {
+        if (val == null) {
+            if (mayNull) {
+                writeHeader(parcel, fieldId, 0);
+            }
+        } else {
+            int start = writeObjectHeader(parcel, fieldId);
+            adapter.write(parcel, val, flags);
+            // Adapters may write binders or file descriptors, which can't be moved
+            finishObjectHeader(parcel, start);
+        }
+    }
+
     public static void write(Parcel parcel, int fieldId, Map val, boolean mayNull) {
         if (val == null) {
             if (mayNull) {
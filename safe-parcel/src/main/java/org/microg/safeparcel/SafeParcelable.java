@@ -7,7 +7,10 @@ package org.microg.safeparcel;
 
 import android.os.Parcelable;
 
+import org.microg.safeparcel.core.SafeParcelFormat;
+
 import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
@@ -15,7 +18,10 @@ import java.lang.annotation.Target;
 public interface SafeParcelable extends Parcelable {
     @Deprecated
     String NULL = "SAFE_PARCELABLE_NULL_STRING";
-    int SAFE_PARCEL_OBJECT_MAGIC = 0x4F45;
+    int SAFE_PARCEL_OBJECT_MAGIC = SafeParcelFormat.OBJECT_MAGIC;
+    int SAFE_PARCEL_PACKED_LIST_MAGIC = SafeParcelFormat.PACKED_LIST_MAGIC;
+    int SAFE_PARCEL_REFERENCE_MAGIC = SafeParcelFormat.REFERENCE_MAGIC;
+    int SAFE_PARCEL_SHARED_REFERENCES_FIELD = SafeParcelFormat.SHARED_REFERENCES_FIELD;
     @Deprecated
     int SAFE_PARCEL_MAGIC = SAFE_PARCEL_OBJECT_MAGIC;
 
@@ -30,8 +36,55 @@ public interface SafeParcelable extends Parcelable {
 
         boolean useValueParcel() default false;
 
+        /**
+         * Write lists of Integer, Long, Float, Double and Boolean element by element instead of as values.
+         * The format is the same as the one of the corresponding primitive array, so such fields may also be
+         * declared as primitive arrays or {@link PrimitiveLists} views.
+         */
         boolean useDirectList() default false;
 
+        /**
+         * Write lists of Integer and Long as zig-zag varints and lists of Boolean as bits.
+         * Only readers that know about the packed format can read such fields.
+         */
+        boolean usePackedList() default false;
+
+        /**
+         * Deduplicate strings of String, List of String and String[] fields through {@link StringCache#getDefault()}.
+         */
+        boolean internStrings() default false;
+
+        /**
+         * Don't write this field if its value is zero, false, null or an empty array, list or map and the field has an
+         * equivalent value after the default constructor. Readers of other versions of the class may have other
+         * defaults. See also {@link Options#elideDefaults()}.
+         */
+        boolean elideDefault() default false;
+
         long versionCode() default -1;
     }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @Inherited
+    @interface Options {
+        /**
+         * Write SafeParcelables that occur more than once in the object graph of this object only once and refer to
+         * them afterwards. Readers rebuild the shared instances. Only readers that know about references can read
+         * objects written this way. Readers reject references for classes without this option, and fail if a field
+         * within the shared objects can't be read.
+         */
+        boolean shareReferences() default false;
+
+        /**
+         * Apply {@link Field#elideDefault()} to all fields of this class.
+         */
+        boolean elideDefaults() default false;
+
+        /**
+         * Objects of this class are not modified after they are first written. Their encoded form is then cached and
+         * reused when the same instance is written again, also as part of other objects.
+         */
+        boolean immutable() default false;
+    }
 }
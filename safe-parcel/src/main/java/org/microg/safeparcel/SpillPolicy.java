@@ -0,0 +1,88 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Moves large byte array fields out of the parcel, see
+ * {@link SafeParcelWriter#writeSpilling(android.os.Parcelable, Parcel, int, SpillPolicy)}.
+ * <p>
+ * By default, the content is written to a temporary file, which is deleted right away and only referenced by a file
+ * descriptor in the parcel. The receiver must opt in with {@link SafeParcelReader#setSpillPolicy(SpillPolicy)}, it then
+ * copies the whole content from the descriptor into a new array when the field is read. Only descriptors of regular
+ * files with exactly the announced length are accepted, so a peer can't stall the reader with a pipe. Subclasses can
+ * store the content elsewhere by overriding {@link #writeReference(Parcel, byte[])} and
+ * {@link #openReference(Parcel, int)}, both sides must set the same implementation then.
+ */
+public class SpillPolicy {
+    private final int threshold;
+    private final File directory;
+
+    /**
+     * @param threshold minimum length of byte arrays that are spilled
+     * @param directory directory for temporary files or null for the default temporary directory
+     */
+    public SpillPolicy(int threshold, File directory) {
+        if (threshold < 0) throw new IllegalArgumentException();
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stores the content and writes a reference to it to the parcel.
+     */
+    protected void writeReference(Parcel parcel, byte[] bytes) throws IOException {
+        File file = File.createTempFile("spill", null, directory);
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            try {
+                parcel.writeFileDescriptor(descriptor.getFileDescriptor());
+            } finally {
+                descriptor.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Reads a reference written by {@link #writeReference(Parcel, byte[])} from the parcel.
+     *
+     * @param length the length of the stored content as announced by the parcel
+     * @return a stream of the stored content
+     */
+    protected InputStream openReference(Parcel parcel, int length) throws IOException {
+        ParcelFileDescriptor descriptor = parcel.readFileDescriptor();
+        if (descriptor == null)
+            throw new IOException("Missing file descriptor");
+        if (descriptor.getStatSize() != length) {
+            descriptor.close();
+            throw new IOException("Not a regular file of " + length + " bytes");
+        }
+        return new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+    }
+}
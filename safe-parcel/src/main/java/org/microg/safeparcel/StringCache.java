@@ -0,0 +1,58 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, thread-safe cache used to deduplicate short strings when reading.
+ * <p>
+ * Strings are stored in a fixed number of slots selected by their hash code, newer strings replace older ones on
+ * collision. Lookups never block, concurrent updates may only cause cache misses.
+ */
+public final class StringCache {
+    private static final StringCache DEFAULT = new StringCache(1024, 128);
+
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+    private final int maxLength;
+
+    /**
+     * @param capacity  number of slots, rounded up to the next power of two
+     * @param maxLength strings longer than this are never cached
+     */
+    public StringCache(int capacity, int maxLength) {
+        if (capacity <= 0 || capacity > 1 << 30) throw new IllegalArgumentException("Invalid capacity " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * The cache used for fields with {@link SafeParcelable.Field#internStrings()} set.
+     */
+    public static StringCache getDefault() {
+        return DEFAULT;
+    }
+
+    public String intern(String string) {
+        if (string == null || string.length() > maxLength) return string;
+        int hash = string.hashCode();
+        int index = (hash ^ hash >>> 16) & mask;
+        String cached = slots.get(index);
+        if (cached != null && cached.equals(string)) return cached;
+        slots.lazySet(index, string);
+        return string;
+    }
+
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.lazySet(i, null);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Parcel;
+
+/**
+ * Encoding of a field type that {@link SafeParcelUtil} doesn't support otherwise, see {@link TypeAdapters}.
+ * <p>
+ * Adapters only write and read the content of a field, header, size and null values are handled by the caller. The
+ * content of a non-null value must not be empty, as empty fields are read as null.
+ */
+public abstract class TypeAdapter<T> {
+    public abstract void write(Parcel parcel, T value, int flags);
+
+    public abstract T read(Parcel parcel);
+
+    /**
+     * @return a copy of the value for {@link SafeParcelUtil#copy(AutoSafeParcelable)}. The default implementation
+     * returns the value itself, which is only correct for immutable types.
+     */
+    public T copy(T value) {
+        return value;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Parcel;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link TypeAdapter}s for field types that {@link SafeParcelUtil} doesn't support otherwise.
+ * <p>
+ * The adapter of a field is resolved once, when its class is first used. Adapters must therefore be registered before
+ * any class with fields of their type is written or read. Enums without a registered adapter are written as their
+ * ordinal, {@link UUID}s as two longs.
+ */
+public final class TypeAdapters {
+    private static final ConcurrentHashMap<Class<?>, TypeAdapter<?>> adapters = new ConcurrentHashMap<>();
+
+    static {
+        register(UUID.class, new UuidAdapter());
+    }
+
+    private TypeAdapters() {
+    }
+
+    public static <T> void register(Class<T> clazz, TypeAdapter<T> adapter) {
+        if (clazz == null || adapter == null) throw new NullPointerException();
+        adapters.put(clazz, adapter);
+    }
+
+    /**
+     * @return the adapter for the class or null if there is none
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <T> TypeAdapter<T> get(Class<T> clazz) {
+        TypeAdapter<?> adapter = adapters.get(clazz);
+        if (adapter == null && clazz.isEnum()) {
+            adapter = new EnumOrdinalAdapter(clazz.asSubclass(Enum.class));
+            TypeAdapter<?> previous = adapters.putIfAbsent(clazz, adapter);
+            if (previous != null) adapter = previous;
+        }
+        return (TypeAdapter<T>) adapter;
+    }
+
+    /**
+     * Writes enum constants as their ordinal. Readers with fewer constants fail to read the field and skip it.
+     */
+    public static final class EnumOrdinalAdapter<E extends Enum<E>> extends TypeAdapter<E> {
+        private final Class<E> clazz;
+        private final E[] values;
+
+        public EnumOrdinalAdapter(Class<E> clazz) {
+            this.clazz = clazz;
+            this.values = clazz.getEnumConstants();
+        }
+
+        @Override
+        public void write(Parcel parcel, E value, int flags) {
+            parcel.writeInt(value.ordinal());
+        }
+
+        @Override
+        public E read(Parcel parcel) {
+            int ordinal = parcel.readInt();
+            if (ordinal < 0 || ordinal >= values.length)
+                throw new SafeParcelReader.ReadException("Unknown ordinal " + ordinal + " of " + clazz.getName(), parcel);
+            return values[ordinal];
+        }
+    }
+
+    private static final class UuidAdapter extends TypeAdapter<UUID> {
+        @Override
+        public void write(Parcel parcel, UUID value, int flags) {
+            parcel.writeLong(value.getMostSignificantBits());
+            parcel.writeLong(value.getLeastSignificantBits());
+        }
+
+        @Override
+        public UUID read(Parcel parcel) {
+            long mostSignificantBits = parcel.readLong();
+            return new UUID(mostSignificantBits, parcel.readLong());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import android.os.Parcel;
+
+import org.junit.rules.ExternalResource;
+import org.microg.safeparcel.test.mock.MockParcel;
+
+/**
+ * Makes the library obtain {@link MockParcel}s for its internal parcels while a test runs.
+ */
+public class MockParcelRule extends ExternalResource {
+    @Override
+    protected void before() {
+        ParcelFactory.setInstance(new ParcelFactory() {
+            @Override
+            Parcel obtain() {
+                return MockParcel.obtain();
+            }
+        });
+    }
+
+    @Override
+    protected void after() {
+        ParcelFactory.setInstance(null);
+    }
+}
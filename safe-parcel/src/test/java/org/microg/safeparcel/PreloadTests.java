@@ -0,0 +1,64 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel;
+
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * In the library package to inspect the schema cache.
+ */
+public class PreloadTests {
+    public static class Leaf extends AutoSafeParcelable {
+        @Field(1)
+        public int value;
+
+        public static final Creator<Leaf> CREATOR = new AutoCreator<>(Leaf.class);
+    }
+
+    public static class Inner extends AutoSafeParcelable {
+        @Field(1)
+        public Leaf[] leaves;
+
+        public static final Creator<Inner> CREATOR = new AutoCreator<>(Inner.class);
+    }
+
+    public static class Outer extends AutoSafeParcelable {
+        @Field(1)
+        public Inner inner;
+        @Field(2)
+        public Outer self;
+
+        public static final Creator<Outer> CREATOR = new AutoCreator<>(Outer.class);
+    }
+
+    @Test
+    public void preloadNestedClasses() {
+        assertNull(SafeParcelSchema.cached(Outer.class));
+        assertNull(SafeParcelSchema.cached(Inner.class));
+        assertNull(SafeParcelSchema.cached(Leaf.class));
+        SafeParcelUtil.preload(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, Outer.class);
+        SafeParcelSchema outer = SafeParcelSchema.cached(Outer.class);
+        SafeParcelSchema inner = SafeParcelSchema.cached(Inner.class);
+        assertNotNull(outer);
+        assertNotNull(inner);
+        assertNotNull(SafeParcelSchema.cached(Leaf.class));
+        assertSame(outer, SafeParcelSchema.of(Outer.class));
+        assertSame(inner, SafeParcelSchema.of(Inner.class));
+        assertSame(Inner.CREATOR, outer.fieldsById.get(1).getCreator());
+        assertSame(Leaf.CREATOR, inner.fieldsById.get(1).getCreator());
+    }
+}
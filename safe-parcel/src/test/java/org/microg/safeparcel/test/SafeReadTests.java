@@ -0,0 +1,85 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test;
+
+import android.os.Parcel;
+
+import org.junit.After;
+import org.junit.Test;
+import org.microg.safeparcel.DecodeLimits;
+import org.microg.safeparcel.SafeParcelReader;
+import org.microg.safeparcel.SafeParcelWriter;
+import org.microg.safeparcel.StringCache;
+import org.microg.safeparcel.test.mock.MockParcel;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SafeReadTests {
+    private static int FIELD_ID = 1123;
+
+    private Parcel reopen(Parcel parcel1) {
+        Parcel parcel2 = MockParcel.obtain();
+        parcel2.unmarshall(parcel1.marshall(), 0, parcel1.dataSize());
+        parcel2.setDataPosition(0);
+        return parcel2;
+    }
+
+    @After
+    public void resetLimits() {
+        SafeParcelReader.setDecodeLimits(DecodeLimits.DEFAULT);
+    }
+
+    @Test
+    public void testReadStringCached() {
+        Parcel parcel1 = MockParcel.obtain();
+        SafeParcelWriter.write(parcel1, FIELD_ID, "com.example", false);
+        SafeParcelWriter.writeStringList(parcel1, FIELD_ID, Arrays.asList("com.example", "other"), false);
+        SafeParcelWriter.write(parcel1, FIELD_ID, new String[]{"other"}, false);
+        Parcel parcel2 = reopen(parcel1);
+        StringCache cache = new StringCache(16, 32);
+        String string = SafeParcelReader.readString(parcel2, SafeParcelReader.readHeader(parcel2), cache);
+        List<String> list = SafeParcelReader.readStringList(parcel2, SafeParcelReader.readHeader(parcel2), cache);
+        String[] array = SafeParcelReader.readStringArray(parcel2, SafeParcelReader.readHeader(parcel2), cache);
+        assertEquals("com.example", string);
+        assertSame(string, list.get(0));
+        assertSame(list.get(1), array[0]);
+        assertEquals(parcel1.dataPosition(), parcel2.dataPosition());
+    }
+
+    @Test
+    public void testLengthExceedsField() {
+        Parcel parcel1 = MockParcel.obtain();
+        parcel1.writeInt(8 << 16 | FIELD_ID);
+        parcel1.writeInt(Integer.MAX_VALUE);
+        parcel1.writeInt(0);
+        Parcel parcel2 = reopen(parcel1);
+        try {
+            SafeParcelReader.readIntegerList(parcel2, SafeParcelReader.readHeader(parcel2));
+            fail();
+        } catch (SafeParcelReader.LimitExceededException expected) {
+        }
+    }
+
+    @Test
+    public void testCollectionLengthLimit() {
+        Parcel parcel1 = MockParcel.obtain();
+        SafeParcelWriter.write(parcel1, FIELD_ID, new int[]{1, 2, 3}, false);
+        SafeParcelWriter.write(parcel1, FIELD_ID, new int[]{1, 2, 3, 4}, false);
+        Parcel parcel2 = reopen(parcel1);
+        SafeParcelReader.setDecodeLimits(new DecodeLimits(3, 1, Long.MAX_VALUE));
+        assertEquals(3, SafeParcelReader.readIntArray(parcel2, SafeParcelReader.readHeader(parcel2)).length);
+        try {
+            SafeParcelReader.readIntArray(parcel2, SafeParcelReader.readHeader(parcel2));
+            fail();
+        } catch (SafeParcelReader.LimitExceededException expected) {
+        }
+    }
+}
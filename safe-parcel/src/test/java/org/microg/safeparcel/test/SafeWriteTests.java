@@ -6,16 +6,30 @@
 package org.microg.safeparcel.test;
 
 import android.os.Parcel;
+import android.os.Parcelable;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.microg.safeparcel.AutoSafeParcelable;
+import org.microg.safeparcel.MockParcelRule;
 import org.microg.safeparcel.SafeParcelReader;
+import org.microg.safeparcel.SafeParcelUtil;
 import org.microg.safeparcel.SafeParcelWriter;
+import org.microg.safeparcel.SpillPolicy;
+import org.microg.safeparcel.test.auto.Bar;
 import org.microg.safeparcel.test.mock.MockParcel;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * These tests only ensure that the written safe parcelable is in fact safe.
@@ -23,6 +37,9 @@ import static org.junit.Assert.assertEquals;
 public class SafeWriteTests {
     private static int FIELD_ID = 1123;
 
+    @Rule
+    public final MockParcelRule mockParcels = new MockParcelRule();
+
     private void testSkipField(Parcel parcel1) {
         Parcel parcel2 = MockParcel.obtain();
         parcel2.unmarshall(parcel1.marshall(), 0, parcel1.dataSize());
@@ -89,6 +106,42 @@ public class SafeWriteTests {
         testSkipField(parcel1);
     }
 
+    @Test
+    public void testWritePackedIntegerList() {
+        Parcel parcel1 = MockParcel.obtain();
+        SafeParcelWriter.writePackedIntegerList(parcel1, FIELD_ID, Arrays.asList(1, -70000, 3), false);
+        testSkipField(parcel1);
+    }
+
+    @Test
+    public void testWritePackedBooleanList() {
+        Parcel parcel1 = MockParcel.obtain();
+        SafeParcelWriter.writePackedBooleanList(parcel1, FIELD_ID, Arrays.asList(true, false, true), false);
+        testSkipField(parcel1);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testPackedListNotReadAsDirectList() {
+        Parcel parcel1 = MockParcel.obtain();
+        SafeParcelWriter.writePackedLongList(parcel1, FIELD_ID, Arrays.asList(1L, 2L), false);
+        Parcel parcel2 = MockParcel.obtain();
+        parcel2.unmarshall(parcel1.marshall(), 0, parcel1.dataSize());
+        parcel2.setDataPosition(0);
+        SafeParcelReader.readLongList(parcel2, SafeParcelReader.readHeader(parcel2));
+    }
+
+    @Test
+    public void testDirectListReadAsArray() {
+        Parcel parcel1 = MockParcel.obtain();
+        SafeParcelWriter.writeLongList(parcel1, FIELD_ID, Arrays.asList(4L, 5L), false);
+        Parcel parcel2 = MockParcel.obtain();
+        parcel2.unmarshall(parcel1.marshall(), 0, parcel1.dataSize());
+        parcel2.setDataPosition(0);
+        long[] arr = SafeParcelReader.readLongArray(parcel2, SafeParcelReader.readHeader(parcel2));
+        assertArrayEquals(new long[]{4L, 5L}, arr);
+        assertEquals(parcel1.dataPosition(), parcel2.dataPosition());
+    }
+
     @Test
     public void testWriteObject() {
         Parcel parcel1 = MockParcel.obtain();
@@ -102,4 +155,141 @@ public class SafeWriteTests {
         int end = SafeParcelReader.readObjectHeader(parcel2);
         assertEquals(parcel1.dataPosition(), end);
     }
+
+    @Test
+    public void testCompactHeader() {
+        Parcel parcel1 = MockParcel.obtain();
+        SafeParcelWriter.write(parcel1, FIELD_ID, new int[]{1, 2}, false);
+        assertEquals(16, parcel1.dataSize());
+        assertEquals(16, parcel1.dataPosition());
+        testSkipField(parcel1);
+        Parcel parcel2 = MockParcel.obtain();
+        parcel2.unmarshall(parcel1.marshall(), 0, parcel1.dataSize());
+        parcel2.setDataPosition(0);
+        assertEquals(12 << 16 | FIELD_ID, parcel2.readInt());
+        parcel2.setDataPosition(0);
+        assertArrayEquals(new int[]{1, 2}, SafeParcelReader.readIntArray(parcel2, SafeParcelReader.readHeader(parcel2)));
+    }
+
+    @Test
+    public void testLargeFieldKeepsLongHeader() {
+        Parcel parcel1 = MockParcel.obtain();
+        SafeParcelWriter.write(parcel1, FIELD_ID, new int[1024], false);
+        assertEquals(8 + 4 + 4096, parcel1.dataSize());
+        testSkipField(parcel1);
+    }
+
+    @Test
+    public void testWriteParcelableArray() {
+        Parcel parcel1 = MockParcel.obtain();
+        Bar[] bars = new Bar[]{new Bar(1), null, new Bar(2)};
+        SafeParcelWriter.write(parcel1, FIELD_ID, bars, 0, false);
+        testSkipField(parcel1);
+        parcel1.setDataPosition(8);
+        assertEquals(3, parcel1.readInt());
+        assertEquals(1, parcel1.readInt());
+        parcel1.setDataPosition(0);
+        assertArrayEquals(bars, SafeParcelReader.readParcelableArray(parcel1, SafeParcelReader.readHeader(parcel1), Bar.CREATOR));
+    }
+
+    private static Parcel writeSpilling(final byte[]... arrays) {
+        Parcel parcel = MockParcel.obtain();
+        SafeParcelWriter.writeSpilling(new Parcelable() {
+            @Override
+            public int describeContents() {
+                return 0;
+            }
+
+            @Override
+            public void writeToParcel(Parcel dest, int flags) {
+                for (byte[] array : arrays) {
+                    SafeParcelWriter.write(dest, FIELD_ID, array, false);
+                }
+            }
+        }, parcel, 0, new TempFileSpillPolicy(64));
+        return parcel;
+    }
+
+    @Test
+    public void testSpilledByteArray() {
+        SafeParcelReader.setSpillPolicy(new TempFileSpillPolicy(64));
+        try {
+            byte[] large = new byte[100];
+            Arrays.fill(large, (byte) 7);
+            Parcel parcel1 = writeSpilling(large, new byte[]{1, 2});
+            assertTrue(parcel1.dataSize() < 100);
+            parcel1.setDataPosition(0);
+            assertArrayEquals(large, SafeParcelReader.readByteArray(parcel1, SafeParcelReader.readHeader(parcel1)));
+            assertArrayEquals(new byte[]{1, 2}, SafeParcelReader.readByteArray(parcel1, SafeParcelReader.readHeader(parcel1)));
+            assertEquals(parcel1.dataSize(), parcel1.dataPosition());
+        } finally {
+            SafeParcelReader.setSpillPolicy(null);
+        }
+    }
+
+    @Test
+    public void testSpilledByteArrayNotAccepted() {
+        Parcel parcel1 = writeSpilling(new byte[100]);
+        parcel1.setDataPosition(0);
+        try {
+            SafeParcelReader.readByteArray(parcel1, SafeParcelReader.readHeader(parcel1));
+            fail();
+        } catch (SafeParcelReader.ReadException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNoSpillingOutsideOfWriteSpilling() {
+        Parcel parcel1 = MockParcel.obtain();
+        SafeParcelWriter.write(parcel1, FIELD_ID, new byte[100], false);
+        assertTrue(parcel1.dataSize() > 100);
+    }
+
+    public static class Blob extends AutoSafeParcelable {
+        @Field(1)
+        public byte[] bytes = new byte[100];
+
+        @Override
+        protected SpillPolicy getSpillPolicy() {
+            return new TempFileSpillPolicy(64);
+        }
+
+        public static Creator<Blob> CREATOR = new AutoCreator<>(Blob.class);
+    }
+
+    @Test
+    public void testNoSpillingWhenMarshalled() {
+        Parcel parcel1 = MockParcel.obtain();
+        new Blob().writeToParcel(parcel1, 0);
+        assertTrue(parcel1.dataSize() < 100);
+        assertTrue(SafeParcelUtil.asByteArray(new Blob()).length > 100);
+    }
+
+    /**
+     * Stand-in for file descriptors, which mock parcels can't hold: references the temporary file by its path.
+     */
+    private static class TempFileSpillPolicy extends SpillPolicy {
+        TempFileSpillPolicy(int threshold) {
+            super(threshold, null);
+        }
+
+        @Override
+        protected void writeReference(Parcel parcel, byte[] bytes) throws IOException {
+            File file = File.createTempFile("spill", null);
+            file.deleteOnExit();
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            parcel.writeString(file.getPath());
+        }
+
+        @Override
+        protected InputStream openReference(Parcel parcel, int length) throws IOException {
+            return new FileInputStream(parcel.readString());
+        }
+    }
 }
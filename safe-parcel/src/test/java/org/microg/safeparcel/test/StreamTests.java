@@ -0,0 +1,78 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.microg.safeparcel.MockParcelRule;
+import org.microg.safeparcel.SafeParcelInputStream;
+import org.microg.safeparcel.SafeParcelOutputStream;
+import org.microg.safeparcel.test.auto.Bar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamTests {
+    @Rule
+    public final MockParcelRule mockParcels = new MockParcelRule();
+
+    private static byte[] write(Bar... bars) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SafeParcelOutputStream out = new SafeParcelOutputStream(bytes)) {
+            for (Bar bar : bars) {
+                out.write(bar);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] bytes = write(new Bar(1), new Bar(2), new Bar(3));
+        try (SafeParcelInputStream in = new SafeParcelInputStream(new ByteArrayInputStream(bytes))) {
+            assertEquals(new Bar(1), in.read(Bar.CREATOR));
+            assertTrue(in.skip());
+            assertEquals(new Bar(3), in.read(Bar.CREATOR));
+            assertNull(in.read(Bar.CREATOR));
+            assertFalse(in.skip());
+        }
+    }
+
+    @Test
+    public void truncatedFrame() throws IOException {
+        byte[] bytes = write(new Bar(1), new Bar(2));
+        bytes = Arrays.copyOf(bytes, bytes.length - 1);
+        try (SafeParcelInputStream in = new SafeParcelInputStream(new ByteArrayInputStream(bytes))) {
+            assertEquals(new Bar(1), in.read(Bar.CREATOR));
+            in.read(Bar.CREATOR);
+            fail();
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void oversizedFrame() throws IOException {
+        byte[] bytes = write(new Bar(1));
+        try (SafeParcelInputStream in = new SafeParcelInputStream(new ByteArrayInputStream(bytes), bytes.length - 5)) {
+            in.read(Bar.CREATOR);
+            fail();
+        } catch (EOFException e) {
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
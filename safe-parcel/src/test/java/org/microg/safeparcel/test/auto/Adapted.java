@@ -0,0 +1,26 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test.auto;
+
+import org.microg.safeparcel.AutoSafeParcelable;
+
+import java.util.Date;
+import java.util.UUID;
+
+public class Adapted extends AutoSafeParcelable {
+    public enum Color {
+        RED, GREEN, BLUE
+    }
+
+    @Field(1)
+    public Color color = Color.RED;
+    @Field(value = 2, mayNull = true)
+    public UUID uuid;
+    @Field(3)
+    public Date date;
+
+    public static Creator<Adapted> CREATOR = new AutoCreator<>(Adapted.class);
+}
@@ -5,15 +5,47 @@
 
 package org.microg.safeparcel.test.auto;
 
+import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.microg.safeparcel.AutoSafeParcelable;
+import org.microg.safeparcel.DecodeLimits;
+import org.microg.safeparcel.FieldMask;
+import org.microg.safeparcel.LazyBundle;
+import org.microg.safeparcel.MockParcelRule;
+import org.microg.safeparcel.PrimitiveLists;
+import org.microg.safeparcel.SafeParcelReader;
+import org.microg.safeparcel.SafeParcelUtil;
+import org.microg.safeparcel.TypeAdapter;
+import org.microg.safeparcel.TypeAdapters;
+import org.microg.safeparcel.core.ContentHash;
 import org.microg.safeparcel.test.mock.MockParcel;
 
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class AutoTests {
+    @Rule
+    public final MockParcelRule mockParcels = new MockParcelRule();
+
     static <T extends Parcelable> T remarshal(T orig, Parcelable.Creator<T> tCreator) {
         Parcel parcel = MockParcel.obtain();
         orig.writeToParcel(parcel, 0);
@@ -34,6 +66,26 @@ public class AutoTests {
         assertEquals(bar1, bar2);
     }
 
+    static Foo createFoo() {
+        Foo foo1 = new Foo(4);
+        foo1.string = "Hello";
+        foo1.stringList.add("Hello2");
+        foo1.stringStringMap.put("Hello3", "Hello4");
+        foo1.bar = new Bar(5);
+        foo1.barList.add(foo1.bar);
+        foo1.barArray = new Bar[]{foo1.bar};
+        foo1.intList.add(2);
+        foo1.intList2.add(3);
+        foo1.floatArray[0] = 1f;
+        foo1.floatArray[1] = 3f;
+        foo1.floatArray[2] = 3f;
+        foo1.floatArray[3] = 7f;
+        foo1.intArray[0] = 1337;
+        foo1.byteArray[0] = 42;
+        foo1.byteArrayArray[0][0] = 24;
+        return foo1;
+    }
+
     @Test
     public void foo() {
         Foo foo1 = new Foo(4);
@@ -55,5 +107,529 @@ public class AutoTests {
         Foo foo2 = remarshal(foo1, Foo.CREATOR);
         assertEquals(foo1, foo2);
     }
-}
 
+    static Lists createLists() {
+        Lists lists1 = new Lists();
+        lists1.packedIntList.add(0);
+        lists1.packedIntList.add(-1);
+        lists1.packedIntList.add(Integer.MAX_VALUE);
+        lists1.packedIntList.add(Integer.MIN_VALUE);
+        lists1.packedLongList.add(300L);
+        lists1.packedLongList.add(Long.MIN_VALUE);
+        for (int i = 0; i < 11; i++) {
+            lists1.packedBooleanList.add(i % 3 == 0);
+        }
+        lists1.longListView = new PrimitiveLists.LongList(new long[]{1, 2, 3});
+        lists1.internedStringList.add("Hello");
+        return lists1;
+    }
+
+    @Test
+    public void lists() {
+        Lists lists1 = createLists();
+        Lists lists2 = remarshal(lists1, Lists.CREATOR);
+        assertEquals(lists1, lists2);
+        Lists lists3 = remarshal(lists1, Lists.CREATOR);
+        assertNotSame(lists1.internedStringList.get(0), lists2.internedStringList.get(0));
+        assertSame(lists2.internedStringList.get(0), lists3.internedStringList.get(0));
+    }
+
+    static Primitives createPrimitives() {
+        Primitives primitives1 = new Primitives();
+        primitives1.longArray[1] = Long.MAX_VALUE;
+        primitives1.doubleArray[0] = 0.5;
+        primitives1.booleanArray[1] = true;
+        primitives1.shortArray[0] = -2;
+        primitives1.charArray[1] = 'x';
+        primitives1.aShort = 512;
+        return primitives1;
+    }
+
+    @Test
+    public void primitives() {
+        Primitives primitives1 = createPrimitives();
+        Primitives primitives2 = remarshal(primitives1, Primitives.CREATOR);
+        assertEquals(primitives1, primitives2);
+    }
+
+    @Test
+    public void sharedReferences() {
+        Node root = new Node("root");
+        Node child = new Node("child");
+        root.bar = new Bar(3);
+        root.bars = new Bar[]{root.bar, root.bar};
+        root.next = child;
+        root.children.add(child);
+        root.children.add(child);
+        child.next = root;
+        child.bar = root.bar;
+        Node copy = remarshal(root, Node.CREATOR);
+        assertEquals("root", copy.name);
+        assertEquals("child", copy.next.name);
+        assertEquals(3, copy.bar.another);
+        assertSame(copy.bar, copy.bars[0]);
+        assertSame(copy.bar, copy.bars[1]);
+        assertSame(copy.next, copy.children.get(0));
+        assertSame(copy.next, copy.children.get(1));
+        assertSame(copy, copy.next.next);
+        assertSame(copy.bar, copy.next.bar);
+    }
+
+    public static class NotShared extends AutoSafeParcelable {
+        @Field(1)
+        public String name;
+        @Field(4)
+        public Bar bar;
+        @Field(7)
+        public Bar laterBar;
+
+        public NotShared() {
+        }
+
+        public static Creator<NotShared> CREATOR = new AutoCreator<>(NotShared.class);
+    }
+
+    @Test
+    public void sharedReferencesRejectedWithoutOption() {
+        Node root = new Node("root");
+        root.bar = new Bar(3);
+        root.laterBar = root.bar;
+        Parcel parcel = MockParcel.obtain();
+        root.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        try {
+            NotShared.CREATOR.createFromParcel(parcel);
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    public static class Unreadable extends AutoSafeParcelable {
+        @Field(1)
+        public int value;
+
+        public Unreadable(int value) {
+            this.value = value;
+        }
+
+        public static Creator<Unreadable> CREATOR = new AutoCreator<>(Unreadable.class);
+    }
+
+    @AutoSafeParcelable.Options(shareReferences = true)
+    public static class SharedWithUnreadable extends AutoSafeParcelable {
+        @Field(1)
+        public Unreadable unreadable;
+        @Field(2)
+        public Bar bar;
+        @Field(3)
+        public Bar laterBar;
+
+        public SharedWithUnreadable() {
+        }
+
+        public static Creator<SharedWithUnreadable> CREATOR = new AutoCreator<>(SharedWithUnreadable.class);
+    }
+
+    @Test
+    public void sharedReferencesFailOnSkippedField() {
+        SharedWithUnreadable object = new SharedWithUnreadable();
+        object.unreadable = new Unreadable(1);
+        object.bar = new Bar(2);
+        object.laterBar = object.bar;
+        Parcel parcel = MockParcel.obtain();
+        object.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        try {
+            SharedWithUnreadable.CREATOR.createFromParcel(parcel);
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void copy() {
+        Foo foo1 = createFoo();
+        Foo foo2 = SafeParcelUtil.copy(foo1);
+        assertEquals(foo1, foo2);
+        assertNotSame(foo1.bar, foo2.bar);
+        assertSame(foo2.bar, foo2.barList.get(0));
+        assertNotSame(foo1.intArray, foo2.intArray);
+        assertNotSame(foo1.byteArrayArray[0], foo2.byteArrayArray[0]);
+        assertSame(foo1.string, foo2.string);
+
+        Lists lists1 = createLists();
+        Lists lists2 = SafeParcelUtil.copy(lists1);
+        assertEquals(lists1, lists2);
+        assertNotSame(lists1.packedIntList, lists2.packedIntList);
+        assertNotSame(lists1.longListView.array(), lists2.longListView.array());
+
+        Node root = new Node("root");
+        root.next = new Node("child");
+        root.next.next = root;
+        Node copy = SafeParcelUtil.copy(root);
+        assertNotSame(root, copy);
+        assertSame(copy, copy.next.next);
+    }
+
+    @Test
+    public void canonical() {
+        Foo foo1 = createFoo();
+        foo1.stringStringMap = new LinkedHashMap<>();
+        foo1.stringStringMap.put("a", "1");
+        foo1.stringStringMap.put("b", "2");
+        Foo foo2 = createFoo();
+        foo2.stringStringMap = new LinkedHashMap<>();
+        foo2.stringStringMap.put("b", "2");
+        foo2.stringStringMap.put("a", "1");
+        assertFalse(Arrays.equals(marshall(foo1, false), marshall(foo2, false)));
+        byte[] bytes = marshall(foo1, true);
+        assertArrayEquals(bytes, marshall(foo2, true));
+        assertEquals(ContentHash.of(bytes), ContentHash.of(marshall(foo2, true)));
+    }
+
+    private static byte[] marshall(Foo foo, boolean canonical) {
+        Parcel parcel = MockParcel.obtain();
+        if (canonical) {
+            SafeParcelUtil.writeCanonical(foo, parcel, 0);
+        } else {
+            foo.writeToParcel(parcel, 0);
+        }
+        return parcel.marshall();
+    }
+
+    @Test
+    public void schemaFingerprint() {
+        assertEquals(SafeParcelUtil.getSchemaFingerprint(Foo.class), SafeParcelUtil.getSchemaFingerprint(Foo.class));
+        assertNotEquals(SafeParcelUtil.getSchemaFingerprint(Foo.class), SafeParcelUtil.getSchemaFingerprint(Bar.class));
+        assertEquals("1 Long\n", SafeParcelUtil.getSchemaDescription(Bar.class));
+        String sparse = SafeParcelUtil.getSchemaDescription(Sparse.class);
+        assertTrue(SafeParcelUtil.diffSchema(Sparse.class, sparse).isEmpty());
+        String other = sparse.replace("2 Integer\n", "2 Long\n").replace("5 FloatArray\n", "") + "6 String\n";
+        assertEquals(Arrays.asList(
+                "Field 2 is Integer locally, Long in other schema",
+                "Field 5 (FloatArray) only in local schema",
+                "Field 6 (String) only in other schema"
+        ), SafeParcelUtil.diffSchema(Sparse.class, other));
+    }
+
+    @Test
+    public void typeAdapters() {
+        TypeAdapters.register(Date.class, new TypeAdapter<Date>() {
+            @Override
+            public void write(Parcel parcel, Date value, int flags) {
+                parcel.writeLong(value.getTime());
+            }
+
+            @Override
+            public Date read(Parcel parcel) {
+                return new Date(parcel.readLong());
+            }
+
+            @Override
+            public Date copy(Date value) {
+                return new Date(value.getTime());
+            }
+        });
+        Adapted adapted = new Adapted();
+        adapted.color = Adapted.Color.BLUE;
+        adapted.uuid = UUID.randomUUID();
+        adapted.date = new Date(1234567890L);
+        Adapted re = remarshal(adapted, Adapted.CREATOR);
+        assertSame(Adapted.Color.BLUE, re.color);
+        assertEquals(adapted.uuid, re.uuid);
+        assertEquals(adapted.date, re.date);
+        assertNotSame(adapted.date, SafeParcelUtil.copy(adapted).date);
+
+        adapted.uuid = null;
+        assertNull(remarshal(adapted, Adapted.CREATOR).uuid);
+    }
+
+    @Test
+    public void readReusing() {
+        Foo foo1 = createFoo();
+        foo1.string = null;
+        Parcel parcel = MockParcel.obtain();
+        foo1.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        Foo foo2 = createFoo();
+        foo2.string = "stale";
+        foo2.bar = new Bar(9);
+        int[] intArray = foo2.intArray;
+        Object barList = foo2.barList;
+        Bar bar = foo2.bar;
+        SafeParcelUtil.readObjectReusing(foo2, parcel);
+        assertEquals(foo1, foo2);
+        assertSame(intArray, foo2.intArray);
+        assertSame(barList, foo2.barList);
+        assertSame(bar, foo2.bar);
+
+        Lists lists1 = createLists();
+        parcel = MockParcel.obtain();
+        lists1.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        Lists lists2 = createLists();
+        lists2.packedIntList.add(5);
+        long[] longListArray = lists2.longListView.array();
+        Object packedIntList = lists2.packedIntList;
+        SafeParcelUtil.readObjectReusing(lists2, parcel);
+        assertEquals(lists1, lists2);
+        assertSame(longListArray, lists2.longListView.array());
+        assertSame(packedIntList, lists2.packedIntList);
+
+        Primitives primitives1 = createPrimitives();
+        parcel = MockParcel.obtain();
+        primitives1.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        Primitives primitives2 = new Primitives();
+        long[] longArray = primitives2.longArray;
+        SafeParcelUtil.readObjectReusing(primitives2, parcel);
+        assertEquals(primitives1, primitives2);
+        assertSame(longArray, primitives2.longArray);
+    }
+
+    public static class NoDefaultConstructor extends AutoSafeParcelable {
+        @Field(1)
+        public int value;
+        @Field(2)
+        public String string;
+
+        public NoDefaultConstructor(int value) {
+            this.value = value;
+        }
+    }
+
+    @Test
+    public void readReusingRequiresDefaultConstructor() {
+        Parcel parcel = MockParcel.obtain();
+        new NoDefaultConstructor(1).writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        NoDefaultConstructor target = new NoDefaultConstructor(2);
+        target.string = "stale";
+        try {
+            SafeParcelUtil.readObjectReusing(target, parcel);
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(0, parcel.dataPosition());
+        assertEquals(2, target.value);
+        assertEquals("stale", target.string);
+    }
+
+    public static class Two extends AutoSafeParcelable {
+        @Field(1)
+        public Bar a;
+        @Field(2)
+        public Bar b;
+        @Field(3)
+        public int[] c;
+        @Field(4)
+        public int[] d;
+
+        public Two() {
+        }
+
+        public static Creator<Two> CREATOR = new AutoCreator<>(Two.class);
+    }
+
+    @Test
+    public void readReusingAliasedFields() {
+        Two src = new Two();
+        src.a = new Bar(1);
+        src.b = new Bar(2);
+        src.c = new int[]{3};
+        src.d = new int[]{4};
+        Parcel parcel = MockParcel.obtain();
+        src.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        Two dst = new Two();
+        dst.a = dst.b = new Bar(0);
+        dst.c = dst.d = new int[1];
+        Bar reused = dst.a;
+        SafeParcelUtil.readObjectReusing(dst, parcel);
+        assertSame(reused, dst.a);
+        assertNotSame(dst.a, dst.b);
+        assertEquals(new Bar(1), dst.a);
+        assertEquals(new Bar(2), dst.b);
+        assertArrayEquals(new int[]{3}, dst.c);
+        assertArrayEquals(new int[]{4}, dst.d);
+    }
+
+    @AutoSafeParcelable.Options(immutable = true)
+    public static class Cached extends AutoSafeParcelable {
+        @Field(1)
+        public int value;
+        @Field(2)
+        public Cached inner;
+
+        private Cached() {
+        }
+
+        public Cached(int value, Cached inner) {
+            this.value = value;
+            this.inner = inner;
+        }
+
+        public static Creator<Cached> CREATOR = new AutoCreator<>(Cached.class);
+    }
+
+    @Test
+    public void immutableEncodingCached() {
+        Cached leaf = new Cached(1, null);
+        Cached root = new Cached(2, leaf);
+        assertEquals(1, remarshal(root, Cached.CREATOR).inner.value);
+        // Modifying cached objects is not supported, here it shows which encoding is written
+        leaf.value = 3;
+        root.value = 4;
+        Cached root2 = remarshal(root, Cached.CREATOR);
+        assertEquals(2, root2.value);
+        assertEquals(1, root2.inner.value);
+        Cached other = remarshal(new Cached(5, leaf), Cached.CREATOR);
+        assertEquals(5, other.value);
+        assertEquals(1, other.inner.value);
+    }
+
+    @Test
+    public void immutableEncodingCachedConcurrently() throws Exception {
+        Cached[] leaves = new Cached[50];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = new Cached(i, null);
+        }
+        Thread[] threads = new Thread[4];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < leaves.length; j++) {
+                        for (int k = 0; k < 4; k++) {
+                            assertEquals(j, remarshal(new Cached(k, leaves[j]), Cached.CREATOR).inner.value);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    public static class Lazy extends AutoSafeParcelable {
+        @Field(1)
+        public LazyBundle bundle;
+        @Field(2)
+        public int value;
+
+        public static Creator<Lazy> CREATOR = new AutoCreator<>(Lazy.class);
+    }
+
+    @Test
+    public void lazyBundle() {
+        Bundle bundle = mock(Bundle.class);
+        Lazy lazy = new Lazy();
+        lazy.bundle = new LazyBundle(bundle);
+        lazy.value = 1;
+        assertTrue(lazy.bundle.isUnparcelled());
+        Lazy read = remarshal(lazy, Lazy.CREATOR);
+        assertEquals(1, read.value);
+        assertFalse(read.bundle.isUnparcelled());
+        assertSame(bundle, read.bundle.get());
+        assertTrue(read.bundle.isUnparcelled());
+    }
+
+    @Test
+    public void lazyBundleWrittenWithoutUnparcelling() {
+        Bundle bundle = mock(Bundle.class);
+        Lazy lazy = new Lazy();
+        lazy.bundle = new LazyBundle(bundle);
+        Lazy read = remarshal(lazy, Lazy.CREATOR);
+        read.value = 2;
+        Lazy reread = remarshal(read, Lazy.CREATOR);
+        assertFalse(read.bundle.isUnparcelled());
+        assertEquals(2, reread.value);
+        assertFalse(reread.bundle.isUnparcelled());
+        assertSame(bundle, reread.bundle.get());
+    }
+
+    @Test
+    public void lazyBundleNullAndEmpty() {
+        Lazy lazy = new Lazy();
+        assertNull(remarshal(lazy, Lazy.CREATOR).bundle);
+        Bundle empty = mock(Bundle.class);
+        when(empty.isEmpty()).thenReturn(true);
+        lazy.bundle = new LazyBundle(empty);
+        Lazy read = remarshal(lazy, Lazy.CREATOR);
+        assertTrue(read.bundle.get().isEmpty());
+        try {
+            new LazyBundle(null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void pooledCreator() {
+        AutoSafeParcelable.PooledAutoCreator<Bar> creator = new AutoSafeParcelable.PooledAutoCreator<>(Bar.class, 1);
+        Bar bar1 = remarshal(new Bar(1), creator);
+        creator.release(bar1);
+        Bar bar2 = remarshal(new Bar(2), creator);
+        assertSame(bar1, bar2);
+        assertEquals(2, bar2.another);
+        assertNotSame(bar2, remarshal(new Bar(3), creator));
+    }
+
+    @Test
+    public void elideDefaults() {
+        Sparse sparse = new Sparse();
+        sparse.five = 0;
+        sparse.floats = new float[0];
+        Parcel parcel = MockParcel.obtain();
+        sparse.writeToParcel(parcel, 0);
+        // object header, field 2 and field 5 with its empty array, which differs from the default null
+        assertEquals(8 + 8 + 8, parcel.dataSize());
+        Sparse copy = remarshal(sparse, Sparse.CREATOR);
+        assertEquals(0, copy.zero);
+        assertEquals(0, copy.five);
+        assertEquals(0, copy.list.size());
+        assertEquals(0, copy.floats.length);
+    }
+
+    @Test
+    public void fieldMask() {
+        Foo foo1 = createFoo();
+        Parcel parcel = MockParcel.obtain();
+        foo1.writeToParcel(parcel, 0, FieldMask.of(3, 2));
+        parcel.setDataPosition(0);
+        Foo foo2 = Foo.CREATOR.createFromParcel(parcel);
+        assertEquals(4, foo2.getIntPrivate());
+        assertEquals("Hello", foo2.string);
+        assertEquals(null, foo2.bar);
+        assertEquals(0, foo2.stringList.size());
+    }
+
+    @Test
+    public void depthLimit() {
+        Node root = new Node("0");
+        Node node = root;
+        for (int i = 1; i < 4; i++) {
+            node.next = new Node(Integer.toString(i));
+            node = node.next;
+        }
+        SafeParcelReader.setDecodeLimits(new DecodeLimits(Integer.MAX_VALUE, 4, Long.MAX_VALUE));
+        try {
+            assertEquals("3", remarshal(root, Node.CREATOR).next.next.next.name);
+            SafeParcelReader.setDecodeLimits(new DecodeLimits(Integer.MAX_VALUE, 3, Long.MAX_VALUE));
+            remarshal(root, Node.CREATOR);
+            fail();
+        } catch (SafeParcelReader.LimitExceededException expected) {
+        } finally {
+            SafeParcelReader.setDecodeLimits(DecodeLimits.DEFAULT);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test.auto;
+
+import android.os.Parcel;
+
+import org.microg.safeparcel.test.mock.MockParcel;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how the throughput of writing and reading objects scales with the number of threads.
+ * <p>
+ * Not run as part of the tests. Run the main method with the test classpath, optionally passing the maximum number of
+ * threads and the duration of each round in milliseconds. All threads share the same classes and creators, as binder
+ * threads do, but use their own parcel. The mock parcel adds considerable overhead of its own, so only the scaling
+ * between rounds is meaningful, not absolute numbers.
+ */
+public class ConcurrencyBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long duration = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+        Foo foo = AutoTests.createFoo();
+        run(foo, 1, duration / 2); // warm up
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double throughput = run(foo, threads, duration);
+            if (threads == 1) base = throughput;
+            System.out.println(String.format(Locale.US, "%3d threads: %10.0f ops/s, %5.2fx", threads, throughput, throughput / base));
+        }
+    }
+
+    private static double run(final Foo foo, int threads, final long duration) throws InterruptedException {
+        final AtomicLong operations = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Parcel parcel = MockParcel.obtain();
+                    long count = 0;
+                    try {
+                        start.await();
+                        long end = System.nanoTime() + duration * 1000000;
+                        while (System.nanoTime() < end) {
+                            parcel.setDataSize(0);
+                            foo.writeToParcel(parcel, 0);
+                            parcel.setDataPosition(0);
+                            Foo.CREATOR.createFromParcel(parcel);
+                            count++;
+                        }
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        operations.addAndGet(count);
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        return operations.get() * 1000.0 / duration;
+    }
+}
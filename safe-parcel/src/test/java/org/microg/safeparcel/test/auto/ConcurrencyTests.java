@@ -0,0 +1,65 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test.auto;
+
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.microg.safeparcel.test.mock.MockParcel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ConcurrencyTests {
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 50;
+
+    @Test
+    public void concurrentRemarshal() throws Exception {
+        final Foo foo = AutoTests.createFoo();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Parcel parcel = MockParcel.obtain();
+                        start.await();
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            parcel.setDataSize(0);
+                            foo.writeToParcel(parcel, 0);
+                            parcel.setDataPosition(0);
+                            assertEquals(foo, Foo.CREATOR.createFromParcel(parcel));
+
+                            Node root = new Node("root");
+                            root.next = new Node("child");
+                            root.next.next = root;
+                            Node copy = AutoTests.remarshal(root, Node.CREATOR);
+                            assertSame(copy, copy.next.next);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test.auto;
+
+import org.microg.safeparcel.AutoSafeParcelable;
+import org.microg.safeparcel.PrimitiveLists;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+class Lists extends AutoSafeParcelable {
+    @Field(value = 1, usePackedList = true)
+    public List<Integer> packedIntList = new ArrayList<>();
+    @Field(value = 2, usePackedList = true)
+    public List<Long> packedLongList = new ArrayList<>();
+    @Field(value = 3, usePackedList = true)
+    public List<Boolean> packedBooleanList = new ArrayList<>();
+    @Field(value = 4, useDirectList = true)
+    public PrimitiveLists.LongList longListView = new PrimitiveLists.LongList(new long[0]);
+    @Field(value = 5, subClass = String.class, internStrings = true)
+    public List<String> internedStringList = new ArrayList<>();
+
+    @Override
+    public String toString() {
+        return "Lists{" +
+                "packedIntList=" + packedIntList +
+                ", packedLongList=" + packedLongList +
+                ", packedBooleanList=" + packedBooleanList +
+                ", longListView=" + longListView +
+                ", internedStringList=" + internedStringList +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Lists lists = (Lists) o;
+        return Objects.equals(packedIntList, lists.packedIntList) &&
+                Objects.equals(packedLongList, lists.packedLongList) &&
+                Objects.equals(packedBooleanList, lists.packedBooleanList) &&
+                Objects.equals(longListView, lists.longListView) &&
+                Objects.equals(internedStringList, lists.internedStringList);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(packedIntList, packedLongList, packedBooleanList, longListView, internedStringList);
+    }
+
+    public static Creator<Lists> CREATOR = new AutoCreator<>(Lists.class);
+}
@@ -0,0 +1,48 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test.auto;
+
+import android.os.Parcel;
+
+import org.microg.safeparcel.SafeParcelUtil;
+import org.microg.safeparcel.SafeParcelable;
+
+/**
+ * SafeParcelable with a hand-written creator, which is not an {@link org.microg.safeparcel.AutoSafeParcelable}.
+ */
+public class Manual implements SafeParcelable {
+    @Field(1)
+    public int value;
+
+    private Manual() {
+    }
+
+    public Manual(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        SafeParcelUtil.writeObject(this, dest, flags);
+    }
+
+    public static final Creator<Manual> CREATOR = new Creator<Manual>() {
+        @Override
+        public Manual createFromParcel(Parcel source) {
+            return SafeParcelUtil.createObject(Manual.class, source);
+        }
+
+        @Override
+        public Manual[] newArray(int size) {
+            return new Manual[size];
+        }
+    };
+}
@@ -0,0 +1,40 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test.auto;
+
+import org.microg.safeparcel.AutoSafeParcelable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@AutoSafeParcelable.Options(shareReferences = true)
+public class Node extends AutoSafeParcelable {
+    @Field(1)
+    public String name;
+    @Field(2)
+    public Node next;
+    @Field(3)
+    public List<Node> children = new ArrayList<>();
+    @Field(4)
+    public Bar bar;
+    @Field(5)
+    public Bar[] bars;
+    @Field(6)
+    public Manual manual;
+    @Field(7)
+    public Bar laterBar;
+    @Field(8)
+    public Bar[] laterBars;
+
+    private Node() {
+    }
+
+    public Node(String name) {
+        this.name = name;
+    }
+
+    public static Creator<Node> CREATOR = new AutoCreator<>(Node.class);
+}
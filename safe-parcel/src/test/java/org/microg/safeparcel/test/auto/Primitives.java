@@ -0,0 +1,64 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test.auto;
+
+import org.microg.safeparcel.AutoSafeParcelable;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+class Primitives extends AutoSafeParcelable {
+    @Field(1)
+    public long[] longArray = new long[2];
+    @Field(2)
+    public double[] doubleArray = new double[2];
+    @Field(3)
+    public boolean[] booleanArray = new boolean[2];
+    @Field(4)
+    public short[] shortArray = new short[2];
+    @Field(5)
+    public char[] charArray = new char[2];
+    @Field(6)
+    public short aShort;
+
+    @Override
+    public String toString() {
+        return "Primitives{" +
+                "longArray=" + Arrays.toString(longArray) +
+                ", doubleArray=" + Arrays.toString(doubleArray) +
+                ", booleanArray=" + Arrays.toString(booleanArray) +
+                ", shortArray=" + Arrays.toString(shortArray) +
+                ", charArray=" + Arrays.toString(charArray) +
+                ", aShort=" + aShort +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Primitives primitives = (Primitives) o;
+        return Arrays.equals(longArray, primitives.longArray) &&
+                Arrays.equals(doubleArray, primitives.doubleArray) &&
+                Arrays.equals(booleanArray, primitives.booleanArray) &&
+                Arrays.equals(shortArray, primitives.shortArray) &&
+                Arrays.equals(charArray, primitives.charArray) &&
+                aShort == primitives.aShort;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(aShort);
+        result = 31 * result + Arrays.hashCode(longArray);
+        result = 31 * result + Arrays.hashCode(doubleArray);
+        result = 31 * result + Arrays.hashCode(booleanArray);
+        result = 31 * result + Arrays.hashCode(shortArray);
+        result = 31 * result + Arrays.hashCode(charArray);
+        return result;
+    }
+
+    public static Creator<Primitives> CREATOR = new AutoCreator<>(Primitives.class);
+}
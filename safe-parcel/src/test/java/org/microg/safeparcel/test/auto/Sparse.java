@@ -0,0 +1,27 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test.auto;
+
+import org.microg.safeparcel.AutoSafeParcelable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@AutoSafeParcelable.Options(elideDefaults = true)
+public class Sparse extends AutoSafeParcelable {
+    @Field(1)
+    public int zero;
+    @Field(2)
+    public int five = 5;
+    @Field(3)
+    public List<String> list = new ArrayList<>();
+    @Field(value = 4, mayNull = true)
+    public String nullable;
+    @Field(5)
+    public float[] floats;
+
+    public static Creator<Sparse> CREATOR = new AutoCreator<>(Sparse.class);
+}
@@ -0,0 +1,154 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.safeparcel.test.auto;
+
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.microg.safeparcel.DecodeLimits;
+import org.microg.safeparcel.SafeParcelReader;
+import org.microg.safeparcel.SafeParcelVerifier;
+import org.microg.safeparcel.SafeParcelWriter;
+import org.microg.safeparcel.test.mock.MockParcel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VerifierTests {
+    private static Parcel toParcel(byte[] bytes) {
+        Parcel parcel = MockParcel.obtain();
+        parcel.unmarshall(bytes, 0, bytes.length);
+        parcel.setDataPosition(0);
+        return parcel;
+    }
+
+    private static byte[] marshall(Node node) {
+        Parcel parcel = MockParcel.obtain();
+        node.writeToParcel(parcel, 0);
+        return parcel.marshall();
+    }
+
+    @Test
+    public void valid() {
+        Parcel parcel = MockParcel.obtain();
+        AutoTests.createFoo().writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        assertTrue(SafeParcelVerifier.verify(parcel).isValid());
+        assertTrue(SafeParcelVerifier.verify(parcel, Foo.class).isValid());
+        assertEquals(0, parcel.dataPosition());
+
+        parcel = MockParcel.obtain();
+        AutoTests.createLists().writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        assertTrue(SafeParcelVerifier.verify(parcel, Lists.class).isValid());
+
+        parcel = MockParcel.obtain();
+        AutoTests.createPrimitives().writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        assertTrue(SafeParcelVerifier.verify(parcel, Primitives.class).isValid());
+    }
+
+    @Test
+    public void validReferences() {
+        Node root = new Node("root");
+        root.next = root;
+        root.bar = new Bar(1);
+        root.bars = new Bar[]{root.bar, null};
+        assertTrue(SafeParcelVerifier.verify(toParcel(marshall(root)), Node.class).isValid());
+    }
+
+    @Test
+    public void referenceToManualObject() {
+        Node root = new Node("root");
+        root.manual = new Manual(3);
+        root.laterBar = new Bar(4);
+        root.laterBars = new Bar[]{root.laterBar};
+        byte[] bytes = marshall(root);
+        assertTrue(SafeParcelVerifier.verify(toParcel(bytes), Node.class).isValid());
+        Node read = Node.CREATOR.createFromParcel(toParcel(bytes));
+        assertEquals(3, read.manual.value);
+        assertSame(read.laterBar, read.laterBars[0]);
+    }
+
+    @Test
+    public void referencesWithoutOption() {
+        Node root = new Node("root");
+        root.bar = new Bar(3);
+        root.laterBar = root.bar;
+        assertFalse(SafeParcelVerifier.verify(toParcel(marshall(root)), AutoTests.NotShared.class).isValid());
+    }
+
+    @Test
+    public void truncated() {
+        byte[] bytes = marshall(new Node("root"));
+        byte[] truncated = new byte[bytes.length - 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        SafeParcelVerifier.Result result = SafeParcelVerifier.verify(toParcel(truncated), Node.class);
+        assertFalse(result.isValid());
+        assertEquals(0, result.getFailureOffset());
+    }
+
+    @Test
+    public void wrongPrimitiveSize() {
+        Parcel parcel = MockParcel.obtain();
+        int start = SafeParcelWriter.writeObjectHeader(parcel);
+        SafeParcelWriter.write(parcel, 1, 1);
+        SafeParcelWriter.finishObjectHeader(parcel, start);
+        parcel.setDataPosition(0);
+        assertTrue(SafeParcelVerifier.verify(parcel).isValid());
+        SafeParcelVerifier.Result result = SafeParcelVerifier.verify(parcel, Bar.class);
+        assertFalse(result.isValid());
+        assertEquals(8, result.getFailureOffset());
+    }
+
+    @Test
+    public void hugeElementCount() {
+        Parcel parcel = MockParcel.obtain();
+        int start = SafeParcelWriter.writeObjectHeader(parcel);
+        SafeParcelWriter.write(parcel, 12, new int[]{1, 2}, false);
+        SafeParcelWriter.finishObjectHeader(parcel, start);
+        byte[] bytes = parcel.marshall();
+        // element count follows object header (8 bytes) and compact field header (4 bytes)
+        bytes[12] = 0x7F;
+        SafeParcelVerifier.Result result = SafeParcelVerifier.verify(toParcel(bytes), Foo.class);
+        assertFalse(result.isValid());
+        assertEquals(8, result.getFailureOffset());
+    }
+
+    @Test
+    public void tooDeep() {
+        Node root = new Node("0");
+        Node node = root;
+        for (int i = 1; i < 10; i++) {
+            node.next = new Node(Integer.toString(i));
+            node = node.next;
+        }
+        byte[] bytes = marshall(root);
+        assertTrue(SafeParcelVerifier.verify(toParcel(bytes), Node.class, 10).isValid());
+        assertFalse(SafeParcelVerifier.verify(toParcel(bytes), Node.class, 9).isValid());
+    }
+
+    @Test
+    public void depthFromDecodeLimits() {
+        Node root = new Node("0");
+        Node node = root;
+        for (int i = 1; i < 4; i++) {
+            node.next = new Node(Integer.toString(i));
+            node = node.next;
+        }
+        byte[] bytes = marshall(root);
+        try {
+            SafeParcelReader.setDecodeLimits(new DecodeLimits(Integer.MAX_VALUE, 4, Long.MAX_VALUE));
+            assertTrue(SafeParcelVerifier.verify(toParcel(bytes), Node.class).isValid());
+            SafeParcelReader.setDecodeLimits(new DecodeLimits(Integer.MAX_VALUE, 3, Long.MAX_VALUE));
+            assertFalse(SafeParcelVerifier.verify(toParcel(bytes), Node.class).isValid());
+        } finally {
+            SafeParcelReader.setDecodeLimits(DecodeLimits.DEFAULT);
+        }
+    }
+}
@@ -5,6 +5,7 @@
 
 package org.microg.safeparcel.test.mock;
 
+import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -30,6 +31,7 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 public class MockParcel {
 
@@ -37,10 +39,15 @@ public class MockParcel {
         return new MockParcel().parcel;
     }
 
+    /**
+     * Bundles can't be written without Android, so only an index into this list is written.
+     */
+    private static final List<Bundle> bundles = new ArrayList<>();
+
     private int dataPosition = 0;
     private byte buf[] = new byte[32];
     private int count = 0;
-    private Parcel parcel = mock(Parcel.class);
+    private Parcel parcel = mock(Parcel.class, withSettings().stubOnly());
     private DataOutputStream dos = new DataOutputStream(new BytesOutputStream());
     private DataInputStream dis = new DataInputStream(new BytesInputStream());
 
@@ -78,10 +85,33 @@ public class MockParcel {
             i.<Parcelable>getArgument(0).writeToParcel(parcel, i.<Integer>getArgument(1));
             return null;
         }).when(parcel).writeParcelable(any(Parcelable.class), anyInt());
+        doAnswer(i -> {
+            Bundle bundle = i.getArgument(0);
+            if (bundle == null) {
+                parcel.writeInt(-1);
+            } else {
+                synchronized (bundles) {
+                    parcel.writeInt(bundles.size());
+                    bundles.add(bundle);
+                }
+            }
+            return null;
+        }).when(parcel).writeBundle(any());
+        when(parcel.readBundle(any())).thenAnswer(i -> {
+            int index = parcel.readInt();
+            if (index == -1) return null;
+            synchronized (bundles) {
+                return bundles.get(index);
+            }
+        });
         doAnswer(i -> {
             dos.write(i.getArgument(0), i.<Integer>getArgument(1), i.<Integer>getArgument(2));
             return null;
         }).when(parcel).unmarshall(any(), anyInt(), anyInt());
+        doAnswer(i -> {
+            dos.write(i.<Parcel>getArgument(0).marshall(), i.<Integer>getArgument(1), i.<Integer>getArgument(2));
+            return null;
+        }).when(parcel).appendFrom(any(Parcel.class), anyInt(), anyInt());
         doAnswer(i -> {
             byte[] val = i.getArgument(0);
             if (val == null) {
@@ -97,6 +127,16 @@ public class MockParcel {
             }
             return null;
         }).when(parcel).writeByteArray(any());
+        doAnswer(i -> {
+            byte[] val = i.getArgument(0);
+            int off = i.getArgument(1);
+            int N = i.getArgument(2);
+            parcel.writeInt(N);
+            for (int j = 0; j < N; j++) {
+                parcel.writeByte(val[off + j]);
+            }
+            return null;
+        }).when(parcel).writeByteArray(any(), anyInt(), anyInt());
         doAnswer(i -> {
             float[] val = i.getArgument(0);
             if (val == null) {
@@ -127,6 +167,66 @@ public class MockParcel {
             }
             return null;
         }).when(parcel).writeIntArray(any());
+        doAnswer(i -> {
+            long[] val = i.getArgument(0);
+            if (val == null) {
+                parcel.writeInt(-1);
+                return null;
+            }
+            int N = val.length;
+            int j = 0;
+            parcel.writeInt(N);
+            while (j < N) {
+                parcel.writeLong(val[j]);
+                j++;
+            }
+            return null;
+        }).when(parcel).writeLongArray(any());
+        doAnswer(i -> {
+            double[] val = i.getArgument(0);
+            if (val == null) {
+                parcel.writeInt(-1);
+                return null;
+            }
+            int N = val.length;
+            int j = 0;
+            parcel.writeInt(N);
+            while (j < N) {
+                parcel.writeDouble(val[j]);
+                j++;
+            }
+            return null;
+        }).when(parcel).writeDoubleArray(any());
+        doAnswer(i -> {
+            boolean[] val = i.getArgument(0);
+            if (val == null) {
+                parcel.writeInt(-1);
+                return null;
+            }
+            int N = val.length;
+            int j = 0;
+            parcel.writeInt(N);
+            while (j < N) {
+                parcel.writeInt(val[j] ? 1 : 0);
+                j++;
+            }
+            return null;
+        }).when(parcel).writeBooleanArray(any());
+        doAnswer(i -> {
+            char[] val = i.getArgument(0);
+            if (val == null) {
+                parcel.writeInt(-1);
+                return null;
+            }
+            int N = val.length;
+            int j = 0;
+            parcel.writeInt(N);
+            while (j < N) {
+                parcel.writeInt(val[j]);
+                j++;
+            }
+            return null;
+        }).when(parcel).writeCharArray(any());
         doAnswer(i -> {
             List<String> val = i.getArgument(0);
             if (val == null) {
@@ -142,6 +242,21 @@ public class MockParcel {
             }
             return null;
         }).when(parcel).writeStringList(any());
+        doAnswer(i -> {
+            String[] val = i.getArgument(0);
+            if (val == null) {
+                parcel.writeInt(-1);
+                return null;
+            }
+            int N = val.length;
+            int j = 0;
+            parcel.writeInt(N);
+            while (j < N) {
+                parcel.writeString(val[j]);
+                j++;
+            }
+            return null;
+        }).when(parcel).writeStringArray(any());
         doAnswer(i -> {
             List val = i.getArgument(0);
             if (val == null) {
@@ -240,6 +355,17 @@ public class MockParcel {
             }
             return res;
         });
+        when(parcel.createStringArray()).thenAnswer(i -> {
+            int N = parcel.readInt();
+            if (N == -1) return null;
+            String[] res = new String[N];
+            int j = 0;
+            while (j < N) {
+                res[j] = parcel.readString();
+                j++;
+            }
+            return res;
+        });
         when(parcel.createTypedArrayList(any(Parcelable.Creator.class))).thenAnswer(i -> {
             int N = parcel.readInt();
             if (N == -1) return null;
@@ -295,6 +421,113 @@ public class MockParcel {
             }
             return res;
         });
+        when(parcel.createLongArray()).thenAnswer(i -> {
+            int N = parcel.readInt();
+            if (N == -1) return null;
+            long[] res = new long[N];
+            int j = 0;
+            while (j < N) {
+                res[j] = parcel.readLong();
+                j++;
+            }
+            return res;
+        });
+        when(parcel.createDoubleArray()).thenAnswer(i -> {
+            int N = parcel.readInt();
+            if (N == -1) return null;
+            double[] res = new double[N];
+            int j = 0;
+            while (j < N) {
+                res[j] = parcel.readDouble();
+                j++;
+            }
+            return res;
+        });
+        when(parcel.createBooleanArray()).thenAnswer(i -> {
+            int N = parcel.readInt();
+            if (N == -1) return null;
+            boolean[] res = new boolean[N];
+            int j = 0;
+            while (j < N) {
+                res[j] = parcel.readInt() != 0;
+                j++;
+            }
+            return res;
+        });
+        when(parcel.createCharArray()).thenAnswer(i -> {
+            int N = parcel.readInt();
+            if (N == -1) return null;
+            char[] res = new char[N];
+            int j = 0;
+            while (j < N) {
+                res[j] = (char) parcel.readInt();
+                j++;
+            }
+            return res;
+        });
+        doAnswer(i -> {
+            byte[] val = i.getArgument(0);
+            int N = parcel.readInt();
+            if (N != val.length) throw new RuntimeException("bad array lengths");
+            for (int j = 0; j < N; j++) {
+                val[j] = parcel.readByte();
+            }
+            return null;
+        }).when(parcel).readByteArray(any(byte[].class));
+        doAnswer(i -> {
+            float[] val = i.getArgument(0);
+            int N = parcel.readInt();
+            if (N != val.length) throw new RuntimeException("bad array lengths");
+            for (int j = 0; j < N; j++) {
+                val[j] = parcel.readFloat();
+            }
+            return null;
+        }).when(parcel).readFloatArray(any(float[].class));
+        doAnswer(i -> {
+            int[] val = i.getArgument(0);
+            int N = parcel.readInt();
+            if (N != val.length) throw new RuntimeException("bad array lengths");
+            for (int j = 0; j < N; j++) {
+                val[j] = parcel.readInt();
+            }
+            return null;
+        }).when(parcel).readIntArray(any(int[].class));
+        doAnswer(i -> {
+            long[] val = i.getArgument(0);
+            int N = parcel.readInt();
+            if (N != val.length) throw new RuntimeException("bad array lengths");
+            for (int j = 0; j < N; j++) {
+                val[j] = parcel.readLong();
+            }
+            return null;
+        }).when(parcel).readLongArray(any(long[].class));
+        doAnswer(i -> {
+            double[] val = i.getArgument(0);
+            int N = parcel.readInt();
+            if (N != val.length) throw new RuntimeException("bad array lengths");
+            for (int j = 0; j < N; j++) {
+                val[j] = parcel.readDouble();
+            }
+            return null;
+        }).when(parcel).readDoubleArray(any(double[].class));
+        doAnswer(i -> {
+            boolean[] val = i.getArgument(0);
+            int N = parcel.readInt();
+            if (N != val.length) throw new RuntimeException("bad array lengths");
+            for (int j = 0; j < N; j++) {
+                val[j] = parcel.readInt() != 0;
+            }
+            return null;
+        }).when(parcel).readBooleanArray(any(boolean[].class));
+        doAnswer(i -> {
+            char[] val = i.getArgument(0);
+            int N = parcel.readInt();
+            if (N != val.length) throw new RuntimeException("bad array lengths");
+            for (int j = 0; j < N; j++) {
+                val[j] = (char) parcel.readInt();
+            }
+            return null;
+        }).when(parcel).readCharArray(any(char[].class));
         when(parcel.readArrayList(any(ClassLoader.class))).thenAnswer(i -> {
             int N = parcel.readInt();
             if (N == -1) return null;
@@ -367,6 +600,14 @@ public class MockParcel {
             dataPosition = i.getArgument(0);
             return null;
         }).when(parcel).setDataPosition(anyInt());
+        doAnswer(i -> {
+            int size = i.getArgument(0);
+            if (size < 0) throw new IllegalArgumentException();
+            if (size > buf.length) buf = Arrays.copyOf(buf, size);
+            count = size;
+            if (dataPosition > count) dataPosition = count;
+            return null;
+        }).when(parcel).setDataSize(anyInt());
         doAnswer(i -> {
             count = 0;
             return null;